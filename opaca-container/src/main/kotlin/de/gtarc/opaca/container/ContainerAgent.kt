@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode
 import de.gtarc.opaca.api.AgentContainerApi
 import de.gtarc.opaca.model.*
 import de.gtarc.opaca.util.ApiProxy
+import de.gtarc.opaca.util.DataFormat
 import de.gtarc.opaca.util.RestHelper
 import de.dailab.jiacvi.Agent
 import de.dailab.jiacvi.BrokerAgentRef
@@ -58,6 +59,9 @@ class ContainerAgent(val image: AgentContainerImage): Agent(overrideName=CONTAIN
      */
     override fun preStart() {
         log.info("Starting Container Agent...")
+        System.getenv(AgentContainerApi.ENV_DATA_FORMAT)?.let {
+            RestHelper.configure(RestHelper.getSettings().toBuilder().preferredFormat(DataFormat.valueOf(it.uppercase())).build())
+        }
         super.preStart()
         server.start()
     }
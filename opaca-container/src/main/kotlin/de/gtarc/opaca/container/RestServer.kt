@@ -1,10 +1,20 @@
 package de.gtarc.opaca.container
 
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.JsonNode
 import de.gtarc.opaca.model.ErrorResponse
+import de.gtarc.opaca.model.Event
 import de.gtarc.opaca.api.AgentContainerApi
 import de.gtarc.opaca.model.Message
-import de.gtarc.opaca.util.RestHelper
+import de.gtarc.opaca.util.CallContext
+import de.gtarc.opaca.util.DataFormat
 import io.javalin.Javalin
+import io.javalin.compression.CompressionStrategy
+import io.javalin.compression.Gzip
+import io.javalin.http.Context
+
+/** minimum size in bytes of responses to be compressed, same as the Runtime Platform's default */
+const val COMPRESSION_MIN_SIZE = 2048
 
 /**
  * New version of the server providing the REST routes for the OPACA Agent Container API using
@@ -16,24 +26,48 @@ import io.javalin.Javalin
  * Requests arriving here are executed in a thread of the underlying Jetty HTTP handler, which then
  * calls functions of the API Implementation and the Container Agent (still in that thread!). Any
  * callbacks, e.g. for invoke-ask, are then handled by the Container Agent's thread.
+ *
+ * The correlation ID of the request, if any, is returned in the response and passed on with any
+ * requests to the parent platform made in the handler thread.
+ *
+ * Request and response bodies are JSON by default, but can also be in one of the binary formats
+ * supported by the Runtime Platform, depending on the Content-Type and Accept headers. Larger
+ * responses are compressed if the client accepts that.
  */
 class RestServerJavalin(val impl: AgentContainerApi, val port: Int, val token: String?) {
 
-    private val server = Javalin.create()
+    private val server = Javalin.create {
+                // compress larger responses with gzip, if accepted by the client (the parent platform)
+                it.http.customCompression(CompressionStrategy(null, Gzip()).apply {
+                    defaultMinSizeForCompression = COMPRESSION_MIN_SIZE
+                })
+            }
             .before {
                 val tokenFromRequest = it.header("Authorization")?.removePrefix("Bearer ")
                 if (! token.isNullOrEmpty() && tokenFromRequest != token) {
                     throw NotAuthenticatedException("Unauthorized: Token does not match")
                 }
+                val correlationId = it.header(Event.HEADER_CORRELATION_ID)
+                if (Event.isValidCorrelationId(correlationId)) {
+                    val call = Event(Event.EventType.CALL, "${it.method()} ${it.path()}", it.header(Event.HEADER_SENDER_ID), null, null, null)
+                    call.correlationId = correlationId
+                    CallContext.setCall(call)
+                    it.header(Event.HEADER_CORRELATION_ID, correlationId)
+                } else {
+                    CallContext.clear()
+                }
+            }
+            .after {
+                CallContext.clear()
             }
             .get("/info") {
-                it.json(impl.containerInfo)
+                respond(it, impl.containerInfo)
             }
             .get("/agents") {
-                it.json(impl.agents)
+                respond(it, impl.agents)
             }
             .get("/agents/{agentId}") {
-                it.json(impl.getAgent(it.pathParam("agentId")))
+                respond(it, impl.getAgent(it.pathParam("agentId")))
             }
             .get("/stream/{stream}") {
                 it.contentType("application/octet-stream")
@@ -45,26 +79,26 @@ class RestServerJavalin(val impl: AgentContainerApi, val port: Int, val token: S
             }
             .post("/send/{agentId}") {
                 val id = it.pathParam("agentId")
-                val message = RestHelper.readObject(it.body(), Message::class.java)
+                val message = readBody(it, Message::class.java)
                 impl.send(id, message, "", false)
             }
             .post("/broadcast/{channel}") {
                 val channel = it.pathParam("channel")
-                val message = RestHelper.readObject(it.body(), Message::class.java)
+                val message = readBody(it, Message::class.java)
                 impl.broadcast(channel, message, "", false)
             }
             .post("/invoke/{action}") {
                 val action = it.pathParam("action")
                 val timeout = (it.queryParam("timeout") ?: "-1").toInt()
-                val parameters = RestHelper.readMap(it.body())
-                it.json(impl.invoke(action, parameters, null, timeout, "", false))
+                val parameters = readParameters(it)
+                respond(it, impl.invoke(action, parameters, null, timeout, "", false))
             }
             .post("/invoke/{action}/{agentId}") {
                 val action = it.pathParam("action")
                 val agentId = it.pathParam("agentId")
                 val timeout = (it.queryParam("timeout") ?: "-1").toInt()
-                val parameters = RestHelper.readMap(it.body())
-                it.json(impl.invoke(action, parameters, agentId, timeout, "", false))
+                val parameters = readParameters(it)
+                respond(it, impl.invoke(action, parameters, agentId, timeout, "", false))
             }
             .post("/stream/{stream}") {
                 val stream = it.pathParam("stream")
@@ -79,7 +113,7 @@ class RestServerJavalin(val impl: AgentContainerApi, val port: Int, val token: S
                 val code = ExceptionMapping.getErrorCode(e)
                 val err = ErrorResponse(code, e.message, null)
                 ctx.status(code)
-                ctx.json(err)
+                respond(ctx, err)
             }
                         
     fun start() {
@@ -90,6 +124,22 @@ class RestServerJavalin(val impl: AgentContainerApi, val port: Int, val token: S
         server.stop()
     }
 
+    private fun <T> readBody(ctx: Context, type: Class<T>): T =
+        DataFormat.forContentType(ctx.contentType()).mapper.readValue(ctx.bodyAsBytes(), type)
+
+    private fun readParameters(ctx: Context): Map<String, JsonNode> =
+        DataFormat.forContentType(ctx.contentType()).mapper.readValue(ctx.bodyAsBytes(), object: TypeReference<Map<String, JsonNode>>() {})
+
+    private fun respond(ctx: Context, result: Any) {
+        val format = DataFormat.forAccept(ctx.header("Accept"))
+        if (format.isBinary) {
+            ctx.contentType(format.mediaType)
+            ctx.result(format.writer.writeValueAsBytes(result))
+        } else {
+            ctx.json(result)
+        }
+    }
+
 }
 
 /**
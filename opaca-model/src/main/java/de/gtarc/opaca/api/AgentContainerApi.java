@@ -19,6 +19,8 @@ public interface AgentContainerApi extends CommonApi{
 
     String ENV_OWNER = "OWNER";
 
+    String ENV_DATA_FORMAT = "DATA_FORMAT";
+
     int DEFAULT_PORT = 8082;
 
     /**
@@ -0,0 +1,60 @@
+package de.gtarc.opaca.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.gtarc.opaca.model.AgentDescription;
+import de.gtarc.opaca.model.DeliveryReport;
+import de.gtarc.opaca.model.Message;
+import de.gtarc.opaca.model.RuntimePlatform;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variants of the most frequently used routes of the Runtime Platform API, e.g. for
+ * invoking many actions in parallel without needing one thread for each. The returned futures are
+ * completed exceptionally with the same exceptions the blocking variants would throw. See the
+ * respective methods in {@link RuntimePlatformApi} and {@link CommonApi} for details.
+ */
+public interface AsyncRuntimePlatformApi {
+
+    /**
+     * REST: GET /info
+     */
+    CompletableFuture<RuntimePlatform> getPlatformInfoAsync();
+
+    /**
+     * REST: GET /agents/{id}
+     */
+    CompletableFuture<AgentDescription> getAgentAsync(String agentId);
+
+    /**
+     * REST: POST /send/{id}?containerId={containerId}&forward={true|false}
+     */
+    CompletableFuture<Void> sendAsync(String agentId, Message message, String containerId, boolean forward);
+
+    /**
+     * REST: POST /broadcast/{channel}?containerId={containerId}&forward={true|false}
+     *
+     * The future is completed with the delivery report of the platform, or null if the target is a container.
+     */
+    CompletableFuture<DeliveryReport> broadcastAsync(String channel, Message message, String containerId, boolean forward);
+
+    /**
+     * REST: POST /invoke/{action}[/{agentId}]?containerId={containerId}&forward={true|false}
+     */
+    CompletableFuture<JsonNode> invokeAsync(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward);
+
+    /**
+     * REST: GET /stream/{stream}[/{agentId}]?containerId={containerId}&forward={true|false}
+     *
+     * The future is completed as soon as the stream is available; the stream has to be closed afterwards.
+     */
+    CompletableFuture<InputStream> getStreamAsync(String stream, String agentId, String containerId, boolean forward);
+
+    /**
+     * REST: POST /stream/{stream}[/{agentId}]?containerId={containerId}&forward={true|false}
+     */
+    CompletableFuture<Void> postStreamAsync(String stream, byte[] inputStream, String agentId, String containerId, boolean forward);
+
+}
@@ -5,6 +5,7 @@ import de.gtarc.opaca.model.*;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * API functions for the Runtime Platform. Of course, the platform should provide all those
@@ -42,6 +43,62 @@ public interface RuntimePlatformApi extends CommonApi {
      */
     List<Event> getHistory() throws IOException;
 
+    /**
+     * Get events from the history matching all of the given criteria, e.g. for getting only new events
+     * since the last call, or for getting the history page by page.
+     *
+     * REST: GET /history?after={eventId|timestamp}&limit={limit}&type={type}&route={route}&sender={senderId}&relatedId={relatedId}
+     *
+     * @param after ID of the last event already known, or timestamp in milliseconds, to get only later events (optional)
+     * @param limit maximum number of events to get, oldest first; 0 for no limit
+     * @param type type of events (optional)
+     * @param route method and route of CALL events, e.g. "POST /invoke/Add" (optional)
+     * @param senderId ID of the sender of CALL events (optional)
+     * @param relatedId ID of the event the events relate to (optional)
+     * @return list of matching events, oldest first; use the ID of the last one for getting the next page
+     */
+    default List<Event> getHistory(String after, int limit, Event.EventType type, String route, String senderId, String relatedId) throws IOException {
+        // simple fallback filtering the entire history, for implementations without indexes or a journal
+        var events = getHistory();
+        var start = 0;
+        Long afterTimestamp = null;
+        if (after != null) {
+            start = events.stream().map(Event::getId).collect(Collectors.toList()).indexOf(after) + 1;
+            if (start == 0 && after.matches("\\d+")) {
+                afterTimestamp = Long.parseLong(after);
+            }
+        }
+        var afterTime = afterTimestamp;
+        return events.subList(start, events.size()).stream()
+                .filter(e -> afterTime == null || e.getTimestamp() > afterTime)
+                .filter(e -> type == null || type == e.getEventType())
+                .filter(e -> route == null || route.equals(e.getRoute()))
+                .filter(e -> senderId == null || senderId.equals(e.getSenderId()))
+                .filter(e -> relatedId == null || relatedId.equals(e.getRelatedId()))
+                .limit(limit > 0 ? limit : Long.MAX_VALUE)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get the timeline of the request with the given correlation ID, i.e. each call on this and, optionally,
+     * on connected platforms, with the time it took and where it was forwarded to. Only calls whose events
+     * are still in the in-memory history are included, and only platforms directly connected to this one
+     * are asked (with forward=false), so calls on platforms that are further away are missing.
+     *
+     * REST: GET /history/trace/{correlationId}?forward={true|false}
+     *
+     * @param correlationId the correlation ID, as given in or returned with the original request
+     * @param forward flag whether to include the calls on directly connected platforms
+     * @return calls that are part of the request, ordered by time
+     */
+    default List<TraceHop> getTrace(String correlationId, boolean forward) throws IOException {
+        // simple fallback filtering the entire history, only for the calls on this platform (with unknown base URL)
+        var events = getHistory().stream()
+                .filter(e -> correlationId.equals(e.getCorrelationId()))
+                .collect(Collectors.toList());
+        return TraceHop.fromEvents(null, events);
+    }
+
     /*
      * AUTHENTICATION
      */
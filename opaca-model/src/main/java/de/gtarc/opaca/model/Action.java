@@ -1,5 +1,6 @@
 package de.gtarc.opaca.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -27,8 +28,31 @@ public class Action {
     /** type of result */
     Parameter result;
 
+    /** optional; if set, results of the action may be cached by the platform, e.g. for pure lookups */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    Caching caching = null;
+
     public Action(String name, Map<String, Parameter> parameters, Parameter result) {
         this(name, null, parameters, result);
     }
 
+    public Action(String name, String description, Map<String, Parameter> parameters, Parameter result) {
+        this(name, description, parameters, result, null);
+    }
+
+    /**
+     * How results of an action may be cached. This should only be used for actions that always return
+     * the same result for the same parameters and do not have any side effects.
+     */
+    @Data @AllArgsConstructor @NoArgsConstructor
+    public static class Caching {
+
+        /** how long a result may be cached, in seconds */
+        int ttlSeconds;
+
+        /** maximum number of results (for different parameters) to cache for the action */
+        int maxEntries = 100;
+
+    }
+
 }
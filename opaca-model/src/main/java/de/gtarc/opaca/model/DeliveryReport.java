@@ -0,0 +1,29 @@
+package de.gtarc.opaca.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Result of a broadcast, listing the base URLs of the containers and platforms the message was
+ * forwarded to, grouped by outcome. For asynchronous broadcasts, all of those are still pending. If the
+ * message was forwarded to a connected platform, that platform's own report is included as well.
+ */
+@Data @AllArgsConstructor @NoArgsConstructor
+public class DeliveryReport {
+
+    /** targets that accepted the message */
+    List<String> succeeded = List.of();
+
+    /** targets that returned an error or could not be reached */
+    List<String> failed = List.of();
+
+    /** targets that did not respond within the broadcast timeout */
+    List<String> timedOut = List.of();
+
+    /** targets the message is still being sent to (asynchronous broadcast) */
+    List<String> pending = List.of();
+
+}
@@ -3,6 +3,7 @@ package de.gtarc.opaca.model;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import java.util.UUID;
+import java.util.regex.Pattern;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.NoArgsConstructor;
 
@@ -15,6 +16,11 @@ public class Event {
 
     public static final String HEADER_SENDER_ID = "sender-id";
 
+    public static final String HEADER_CORRELATION_ID = "correlation-id";
+
+    /** correlation IDs taken from requests, e.g. UUIDs; others are replaced by a new one */
+    private static final Pattern VALID_CORRELATION_ID = Pattern.compile("[A-Za-z0-9._:-]{1,128}");
+
 
     /** unique ID of this event */
     final String id = UUID.randomUUID().toString();
@@ -40,6 +46,21 @@ public class Event {
     /** optional ID of a different event this event relates to */
     String relatedId;
 
+    /** ID shared by all events caused by the same original request, on all platforms it passed through */
+    String correlationId;
+
+    public Event(EventType eventType, String route, String senderId, String receiver, Integer statusCode, String relatedId) {
+        this(eventType, route, senderId, receiver, statusCode, relatedId, null);
+    }
+
+    /**
+     * Check whether a correlation ID given in a request header can be used as is, i.e. it is not too long
+     * and only contains letters, digits and a few separators, as it is echoed back, indexed and persisted.
+     */
+    public static boolean isValidCorrelationId(String correlationId) {
+        return correlationId != null && VALID_CORRELATION_ID.matcher(correlationId).matches();
+    }
+
 
     /**
      * Nested EventType enum
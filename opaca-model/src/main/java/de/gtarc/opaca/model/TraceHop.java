@@ -0,0 +1,64 @@
+package de.gtarc.opaca.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * One step in the timeline of a request with a given correlation ID, i.e. a call to one Runtime Platform,
+ * with the containers and platforms the call was forwarded to from there.
+ */
+@Data @AllArgsConstructor @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TraceHop {
+
+    /** base URL of the Runtime Platform that received the call */
+    String platform;
+
+    /** method and route of the call */
+    String route;
+
+    /** the ID of the sending AgentContainer or RuntimePlatform, if known */
+    String senderId;
+
+    /** time when the call was received */
+    Long timestamp;
+
+    /** time in milliseconds until the call was completed; null if still in progress */
+    Long duration;
+
+    /** HTTP status code if the call failed */
+    Integer statusCode;
+
+    /** base URLs of the containers and platforms the call was forwarded to */
+    List<String> forwardedTo;
+
+    /**
+     * Create one hop for each CALL event among the given events of the same request, with the duration and
+     * status from its SUCCESS or ERROR event and the receivers of its FORWARD events, if any.
+     */
+    public static List<TraceHop> fromEvents(String platform, List<Event> events) {
+        var eventsByRelatedId = events.stream()
+                .filter(e -> e.getRelatedId() != null)
+                .collect(Collectors.groupingBy(Event::getRelatedId));
+        List<TraceHop> trace = new ArrayList<>();
+        for (Event call : events) {
+            if (call.getEventType() != Event.EventType.CALL) continue;
+            var related = eventsByRelatedId.getOrDefault(call.getId(), List.of());
+            var end = related.stream()
+                    .filter(e -> e.getEventType() == Event.EventType.SUCCESS || e.getEventType() == Event.EventType.ERROR)
+                    .findFirst();
+            trace.add(new TraceHop(platform, call.getRoute(), call.getSenderId(), call.getTimestamp(),
+                    end.map(e -> e.getTimestamp() - call.getTimestamp()).orElse(null),
+                    end.map(Event::getStatusCode).orElse(null),
+                    related.stream().filter(e -> e.getEventType() == Event.EventType.FORWARD).map(Event::getReceiver).collect(Collectors.toList())));
+        }
+        return trace;
+    }
+
+}
@@ -0,0 +1,141 @@
+package de.gtarc.opaca.util;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Structured log of incoming and outgoing requests, with one JSON line per request, written to the
+ * "de.gtarc.opaca.access" logger at level INFO. Entries are only created if that level is enabled for
+ * the logger, and successful requests can be sampled; errors are always logged. Entries are formatted
+ * and written by a separate thread, so logging does not slow down the request; if that thread can not
+ * keep up, further entries are dropped.
+ */
+public class AccessLog {
+
+    public static final String LOGGER_NAME = "de.gtarc.opaca.access";
+
+    private static final Logger logger = Logger.getLogger(LOGGER_NAME);
+
+    /** fraction of successful requests to log, between 0.0 (none) and 1.0 (all) */
+    public static double sampleRate = 1.0;
+
+    /** maximum number of characters of the request payload to include, 0 for none */
+    public static int maxPayloadLength = 200;
+
+    private static final int QUEUE_SIZE = 10000;
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static volatile Thread writer;
+
+    private AccessLog() {
+    }
+
+    /**
+     * One incoming or outgoing request. The payload is kept as-is and only truncated and converted when the
+     * entry is written, so this does not add any work to the request itself.
+     */
+    @Getter @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Entry {
+        /** "in" for requests to this server, "out" for requests sent to other containers or platforms */
+        String direction;
+        String method;
+        String route;
+        /** base URL of the target, for outgoing requests */
+        String target;
+        /** HTTP status code, or -1 if the request failed without a response */
+        int status;
+        double durationMs;
+        /** size of request and response body, or -1 if not known */
+        long requestBytes;
+        long responseBytes;
+        @JsonIgnore
+        byte[] payloadBytes;
+        String error;
+
+        public String getPayload() {
+            if (payloadBytes == null || maxPayloadLength <= 0) return null;
+            var text = new String(payloadBytes, 0, Math.min(payloadBytes.length, maxPayloadLength * 4), StandardCharsets.UTF_8);
+            return text.length() > maxPayloadLength ? text.substring(0, maxPayloadLength) + "..." : text;
+        }
+    }
+
+    /**
+     * Whether requests should be logged at all; check this before collecting the information for an entry.
+     */
+    public static boolean isEnabled() {
+        return logger.isLoggable(Level.INFO);
+    }
+
+    /**
+     * Add an entry for a request that has been completed, considering the sample rate, without blocking.
+     */
+    public static void log(Entry entry) {
+        if (! isEnabled()) return;
+        if (entry.status >= 0 && entry.status < 400 && sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) return;
+        ensureWriter();
+        if (! queue.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Number of entries dropped because the queue was full.
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Convenience method for getting the time since the start of a request, in milliseconds.
+     */
+    public static double since(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    private static void ensureWriter() {
+        if (writer == null) {
+            synchronized (AccessLog.class) {
+                if (writer == null) {
+                    var thread = new Thread(AccessLog::write, "access-log");
+                    thread.setDaemon(true);
+                    thread.start();
+                    writer = thread;
+                }
+            }
+        }
+    }
+
+    private static void write() {
+        var writer = RestHelper.mapper.writer();
+        while (true) {
+            try {
+                var entry = queue.take();
+                logger.info(writer.writeValueAsString(entry));
+            } catch (InterruptedException e) {
+                return;
+            } catch (JsonProcessingException e) {
+                logger.warning("Failed to write access log entry: " + e.getMessage());
+            }
+        }
+    }
+
+}
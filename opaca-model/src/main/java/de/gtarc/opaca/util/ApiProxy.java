@@ -1,23 +1,39 @@
 package de.gtarc.opaca.util;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import de.gtarc.opaca.api.AgentContainerApi;
+import de.gtarc.opaca.api.AsyncRuntimePlatformApi;
 import de.gtarc.opaca.api.RuntimePlatformApi;
 import de.gtarc.opaca.model.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
  * Implementation of the API forwarding to the REST services at a specific base URL.
  * Can be used for e.g. calling routes of a connected Runtime Platform, or a container's
- * parent Runtime Platform, or just for testing.
+ * parent Runtime Platform, or just for testing. The asynchronous variants of the routes do not
+ * block the calling thread while waiting for the response.
  */
-public class ApiProxy implements RuntimePlatformApi, AgentContainerApi {
+public class ApiProxy implements RuntimePlatformApi, AgentContainerApi, AsyncRuntimePlatformApi {
+
+    /** additional time to wait for the response to an invoke with a timeout, in milliseconds */
+    private static final long INVOKE_TIMEOUT_MARGIN_MS = 5000;
+
+    private static final TypeReference<Map<String, Object>> CONFIG_TYPE = new TypeReference<>() {};
+    private static final TypeReference<List<Event>> EVENTS_TYPE = new TypeReference<>() {};
+    private static final TypeReference<List<TraceHop>> TRACE_TYPE = new TypeReference<>() {};
+    private static final TypeReference<List<AgentDescription>> AGENTS_TYPE = new TypeReference<>() {};
+    private static final TypeReference<List<AgentContainer>> CONTAINERS_TYPE = new TypeReference<>() {};
+    private static final TypeReference<List<String>> CONNECTIONS_TYPE = new TypeReference<>() {};
 
     public final String baseUrl;
     private final RestHelper client;
@@ -36,19 +52,40 @@ public class ApiProxy implements RuntimePlatformApi, AgentContainerApi {
 
     @Override
     public RuntimePlatform getPlatformInfo() throws IOException {
-        return client.get("/info", RuntimePlatform.class);
+        return RestHelper.await(getPlatformInfoAsync());
+    }
+
+    @Override
+    public CompletableFuture<RuntimePlatform> getPlatformInfoAsync() {
+        return client.getAsync("/info", RuntimePlatform.class);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public Map<String, ?> getPlatformConfig() throws IOException {
-        return client.get("/config", Map.class);
+        return client.get("/config", CONFIG_TYPE);
     }
 
-    @SuppressWarnings({"unchecked"})
     @Override
     public List<Event> getHistory() throws IOException {
-        return client.get("/history", List.class);
+        return client.get("/history", EVENTS_TYPE);
+    }
+
+    @Override
+    public List<Event> getHistory(String after, int limit, Event.EventType type, String route, String senderId, String relatedId) throws IOException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("after", encode(after));
+        params.put("limit", limit > 0 ? limit : null);
+        params.put("type", type);
+        params.put("route", encode(route));
+        params.put("sender", encode(senderId));
+        params.put("relatedId", encode(relatedId));
+        return client.get("/history?" + buildQuery(params), EVENTS_TYPE);
+    }
+
+    @Override
+    public List<TraceHop> getTrace(String correlationId, boolean forward) throws IOException {
+        var path = String.format("/history/trace/%s?%s", encode(correlationId).replace("+", "%20"), buildQuery(null, forward, null));
+        return client.get(path, TRACE_TYPE);
     }
 
     @Override
@@ -71,53 +108,85 @@ public class ApiProxy implements RuntimePlatformApi, AgentContainerApi {
 
     // AGENT ROUTES
 
-    @SuppressWarnings({"unchecked"})
     @Override
     public List<AgentDescription> getAgents() throws IOException {
-        return client.get("/agents", List.class);
+        return client.get("/agents", AGENTS_TYPE);
     }
 
     @Override
     public AgentDescription getAgent(String agentId) throws IOException {
+        return RestHelper.await(getAgentAsync(agentId));
+    }
+
+    @Override
+    public CompletableFuture<AgentDescription> getAgentAsync(String agentId) {
         var path = String.format("/agents/%s", agentId);
-        return client.get(path, AgentDescription.class);
+        return client.getAsync(path, AgentDescription.class);
     }
 
     @Override
     public void send(String agentId, Message message, String containerId, boolean forward) throws IOException {
+        RestHelper.await(sendAsync(agentId, message, containerId, forward));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(String agentId, Message message, String containerId, boolean forward) {
         var path = String.format("/send/%s?%s", agentId, buildQuery(containerId, forward, null));
-        client.post(path, message, null);
+        return client.postAsync(path, message, null);
     }
 
     @Override
     public void broadcast(String channel, Message message, String containerId, boolean forward) throws IOException {
+        RestHelper.await(broadcastAsync(channel, message, containerId, forward));
+    }
+
+    @Override
+    public CompletableFuture<DeliveryReport> broadcastAsync(String channel, Message message, String containerId, boolean forward) {
         var path = String.format("/broadcast/%s?%s", channel, buildQuery(containerId, forward, null));
-        client.post(path, message, null);
+        return client.postAsync(path, message, DeliveryReport.class);
     }
 
     @Override
     public JsonNode invoke(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward) throws IOException {
+        return RestHelper.await(invokeAsync(action, parameters, agentId, timeout, containerId, forward));
+    }
+
+    @Override
+    public CompletableFuture<JsonNode> invokeAsync(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward) {
         var path = agentId == null
                 ? String.format("/invoke/%s?%s", action, buildQuery(containerId, forward, timeout))
                 : String.format("/invoke/%s/%s?%s", action, agentId, buildQuery(containerId, forward, timeout));
-        return client.post(path, parameters, JsonNode.class);
+        // wait a bit longer than the action's own timeout, so the container can still report it
+        long requestTimeout = timeout > 0 ? timeout * 1000L + INVOKE_TIMEOUT_MARGIN_MS : RestHelper.getSettings().getRequestTimeoutMs();
+        return client.postAsync(path, parameters, JsonNode.class, requestTimeout);
     }
 
     @Override
     public InputStream getStream(String stream, String agentId, String containerId, boolean forward) throws IOException {
+        return RestHelper.await(getStreamAsync(stream, agentId, containerId, forward));
+    }
+
+    @Override
+    public CompletableFuture<InputStream> getStreamAsync(String stream, String agentId, String containerId, boolean forward) {
         var path = agentId == null
                 ? String.format("/stream/%s?%s", stream, buildQuery(containerId, forward, null))
                 : String.format("/stream/%s/%s?%s", stream, agentId, buildQuery(containerId, forward, null));
-        return client.request("GET", path, null);
+        return client.requestAsync("GET", path, null);
     }
 
     @Override
     public void postStream(String stream, byte[] inputStream, String agentId, String containerId, boolean forward) throws IOException {
+        RestHelper.await(postStreamAsync(stream, inputStream, agentId, containerId, forward));
+    }
+
+    @Override
+    public CompletableFuture<Void> postStreamAsync(String stream, byte[] inputStream, String agentId, String containerId, boolean forward) {
         var path = agentId == null
                 ? String.format("/stream/%s?%s", stream, buildQuery(containerId, forward, null))
                 : String.format("/stream/%s/%s?%s", stream, agentId, buildQuery(containerId, forward, null));
-        client.postStream(path, inputStream);
+        return client.streamRequestAsync("POST", path, inputStream);
     }
+
     // CONTAINER ROUTES
 
     @Override
@@ -125,10 +194,9 @@ public class ApiProxy implements RuntimePlatformApi, AgentContainerApi {
         return client.post("/containers", container, String.class);
     }
 
-    @SuppressWarnings({"unchecked"})
     @Override
     public List<AgentContainer> getContainers() throws IOException {
-        return client.get("/containers", List.class);
+        return client.get("/containers", CONTAINERS_TYPE);
     }
 
     @Override
@@ -150,10 +218,9 @@ public class ApiProxy implements RuntimePlatformApi, AgentContainerApi {
         return client.post("/connections", loginConnection, Boolean.class);
     }
 
-    @SuppressWarnings({"unchecked"})
     @Override
     public List<String> getConnections() throws IOException {
-        return client.get("/connections", List.class);
+        return client.get("/connections", CONNECTIONS_TYPE);
     }
 
     @Override
@@ -182,6 +249,10 @@ public class ApiProxy implements RuntimePlatformApi, AgentContainerApi {
         return buildQuery(params);
     }
 
+    private static String encode(String value) {
+        return value == null ? null : URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
     private String buildQuery(Map<String, Object> params) {
         StringBuilder builder = new StringBuilder();
         for (Map.Entry<String, ?> entry : params.entrySet()) {
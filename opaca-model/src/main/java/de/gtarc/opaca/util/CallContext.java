@@ -0,0 +1,49 @@
+package de.gtarc.opaca.util;
+
+import de.gtarc.opaca.model.Event;
+
+import java.util.function.Supplier;
+
+/**
+ * Holds the CALL Event of the request currently being handled by this thread, so that FORWARD events
+ * for requests made while handling it can be related to the right CALL event, even if the same route is
+ * called concurrently, and its correlation ID can be passed on with those requests. Has to be passed on
+ * explicitly when continuing the request in a different thread.
+ */
+public class CallContext {
+
+    private static final ThreadLocal<Event> currentCall = new ThreadLocal<>();
+
+    private CallContext() {
+    }
+
+    /**
+     * Get the CALL event of the request currently handled by this thread, or null if none.
+     */
+    public static Event getCall() {
+        return currentCall.get();
+    }
+
+    public static void setCall(Event call) {
+        currentCall.set(call);
+    }
+
+    public static void clear() {
+        currentCall.remove();
+    }
+
+    /**
+     * Get the result of the supplier with the given CALL event as the current one, e.g. when making a
+     * request in a different thread, restoring the previous one afterwards.
+     */
+    public static <T> T withCall(Event call, Supplier<T> supplier) {
+        var previous = currentCall.get();
+        currentCall.set(call);
+        try {
+            return supplier.get();
+        } finally {
+            currentCall.set(previous);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package de.gtarc.opaca.util;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Formats that request and response bodies can be encoded in, besides JSON also the binary formats
+ * CBOR and Smile, which are faster to encode and decode and more compact, in particular for numeric
+ * data. Those are negotiated using the usual Accept and Content-Type headers, with JSON as fallback
+ * for clients and servers not supporting (or not asking for) the binary formats.
+ */
+public enum DataFormat {
+
+    JSON("application/json", JsonMapper.builder().findAndAddModules().build()),
+    CBOR("application/cbor", CBORMapper.builder().findAndAddModules().build()),
+    SMILE("application/x-jackson-smile", SmileMapper.builder().findAndAddModules().build());
+
+    @Getter
+    private final String mediaType;
+
+    @Getter
+    private final ObjectMapper mapper;
+
+    @Getter
+    private final ObjectWriter writer;
+
+    /** pre-built readers for the different types, created on first use */
+    private final Map<JavaType, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    DataFormat(String mediaType, ObjectMapper mapper) {
+        this.mediaType = mediaType;
+        this.mapper = mapper;
+        this.writer = mapper.writer();
+    }
+
+    public boolean isBinary() {
+        return this != JSON;
+    }
+
+    public ObjectReader getReader(JavaType type) {
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
+
+    /**
+     * Get the format matching the media type given in a Content-Type header, or JSON if none or unknown.
+     */
+    public static DataFormat forContentType(String contentType) {
+        if (contentType != null) {
+            var mediaType = contentType.split(";")[0].trim();
+            for (DataFormat format : values()) {
+                if (format.mediaType.equalsIgnoreCase(mediaType)) return format;
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * Get the first binary format listed in an Accept header, or JSON if none. Quality values are
+     * not considered, except for explicitly excluding a format with "q=0".
+     */
+    public static DataFormat forAccept(String accept) {
+        if (accept != null) {
+            for (String entry : accept.split(",")) {
+                var format = forContentType(entry);
+                if (format.isBinary() && ! isExcluded(entry)) return format;
+            }
+        }
+        return JSON;
+    }
+
+    private static boolean isExcluded(String acceptEntry) {
+        for (String parameter : acceptEntry.split(";")) {
+            var keyValue = parameter.trim().split("=");
+            if (keyValue.length == 2 && keyValue[0].trim().equals("q")) {
+                try {
+                    return Double.parseDouble(keyValue[1].trim()) <= 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+}
@@ -1,21 +1,47 @@
 package de.gtarc.opaca.util;
 
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import de.gtarc.opaca.model.Event;
 
 /**
  * This class provides the Event History.
+ *
+ * Events are kept in a ring buffer of the last maxSize events (or all events, if not limited). Adding an
+ * event only holds the lock for appending it and dropping the oldest one, and getting or querying events only
+ * for copying the references to the events in memory; filtering is done on that copy. This was faster than
+ * a lock-free ring buffer with indexes by type, route etc. (see EventHistoryBenchmark), as maintaining those
+ * indexes for each event cost more than the short lock.
+ *
+ * Listeners can be added to be notified of each event once it has been added, e.g. for streaming them.
+ * Optionally, all events are also written to an {@link EventJournal}, which is used for restoring the last
+ * events after a restart and for queries for events that are no longer in memory.
  */
 public class EventHistory {
- 
+
     // max number of entries in the history; default is zero, use any negative value for no limit
     public static int maxSize = 0;
 
     private static final EventHistory INSTANCE = new EventHistory();
-    
-    private final List<Event> events = Collections.synchronizedList(new LinkedList<>());
+
+    private static final Event[] NO_EVENTS = new Event[0];
+
+    /** max number of events restored from the journal if the history is not limited */
+    private static final int MAX_RESTORED = 10000;
+
+    /** events in memory, oldest first; guarded by itself */
+    private final ArrayDeque<Event> events = new ArrayDeque<>();
+
+    /** called for each added event, in the thread adding it, so those should not block */
+    private final List<Consumer<Event>> listeners = new CopyOnWriteArrayList<>();
+
+    /** journal for persisting all events, if any */
+    private volatile EventJournal journal;
 
     private EventHistory() {
     }
@@ -25,17 +51,156 @@ public class EventHistory {
     }
 
     public void addEvent(Event entry) {
-        if (entry != null) {
-            events.add(entry);
-            while (maxSize >= 0 && events.size() > maxSize) {
-                events.remove(0);
+        if (entry == null) return;
+        var journal = this.journal;
+        if (journal != null) {
+            journal.append(entry);
+        }
+        if (record(entry)) {
+            for (var listener : listeners) {
+                listener.accept(entry);
             }
         }
     }
 
+    public void addListener(Consumer<Event> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Event> listener) {
+        listeners.remove(listener);
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Set the journal for persisting all further events, or null for none, first restoring the last events
+     * from it, up to maxSize (or MAX_RESTORED if not limited, as the journal may be much larger than what
+     * fits in memory); this should be called before adding any events.
+     */
+    public void setJournal(EventJournal journal) {
+        if (journal != null && maxSize != 0) {
+            journal.getLastEvents(maxSize > 0 ? maxSize : MAX_RESTORED).forEach(this::record);
+        }
+        this.journal = journal;
+    }
+
     public List<Event> getEvents() {
-        return List.copyOf(events);
+        return List.of(snapshot());
     }
-}
 
+    /**
+     * Get events matching all of the given criteria (if not null), oldest first, starting after the event
+     * with the given ID or timestamp (in milliseconds), up to the given number of events (if positive). If the
+     * event with the given ID is no longer in the history, this starts with the oldest event.
+     *
+     * If there is a journal, and the event with the given ID or timestamp is older than the events in memory,
+     * the events are read from the journal instead.
+     */
+    public List<Event> getEvents(String after, int limit, Event.EventType type, String route, String senderId, String relatedId) {
+        return getEvents(after, limit, type, route, senderId, relatedId, false);
+    }
+
+    /**
+     * Get the events matching the given type and route (if not null) after the event with the given ID, e.g.
+     * for resuming a stream of events; other than getEvents, this gets no events at all if the event with the
+     * given ID is not known (anymore), neither in memory nor in the journal.
+     */
+    public List<Event> getEventsAfterKnown(String after, Event.EventType type, String route) {
+        return getEvents(after, 0, type, route, null, null, true);
+    }
 
+    private List<Event> getEvents(String after, int limit, Event.EventType type, String route, String senderId, String relatedId,
+                                  boolean onlyAfterKnown) {
+        Predicate<Event> matches = event -> (type == null || type == event.getEventType())
+                && (route == null || route.equals(event.getRoute()))
+                && (senderId == null || senderId.equals(event.getSenderId()))
+                && (relatedId == null || relatedId.equals(event.getRelatedId()));
+        var journal = this.journal;
+        var events = snapshot();
+        var start = 0;
+        Long afterTimestamp = null;
+        if (after != null) {
+            var index = indexOf(events, after);
+            if (index >= 0) {
+                start = index + 1;
+            } else if (after.matches("\\d+")) {
+                afterTimestamp = Long.parseLong(after);
+                if (journal != null && (events.length == 0 || afterTimestamp < events[0].getTimestamp())) {
+                    return journal.getEvents(null, afterTimestamp, limit, matches);
+                }
+            } else {
+                var fromJournal = journal != null ? journal.getEvents(after, null, limit, matches) : null;
+                if (fromJournal != null) return fromJournal;
+                if (onlyAfterKnown) return List.of();
+            }
+        }
+
+        List<Event> result = new ArrayList<>();
+        for (int i = start; i < events.length && (limit <= 0 || result.size() < limit); i++) {
+            var event = events[i];
+            if ((afterTimestamp == null || event.getTimestamp() > afterTimestamp) && matches.test(event)) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get all events in memory with the given correlation ID, oldest first, e.g. for tracing a request.
+     */
+    public List<Event> getEventsByCorrelationId(String correlationId) {
+        List<Event> result = new ArrayList<>();
+        for (var event : snapshot()) {
+            if (correlationId.equals(event.getCorrelationId())) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    /**
+     * Add the event to the in-memory history, unless that is disabled.
+     */
+    private boolean record(Event entry) {
+        var max = maxSize;
+        if (max == 0) return false;
+        synchronized (events) {
+            events.addLast(entry);
+            while (max > 0 && events.size() > max) {
+                events.removeFirst();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the last maxSize events in memory, oldest first, copying only the references while holding the lock.
+     */
+    private Event[] snapshot() {
+        var max = maxSize;
+        if (max == 0) return NO_EVENTS;
+        Event[] all;
+        synchronized (events) {
+            all = events.toArray(NO_EVENTS);
+        }
+        return max > 0 && all.length > max ? Arrays.copyOfRange(all, all.length - max, all.length) : all;
+    }
+
+    /**
+     * Find the event with the given ID, starting with the most recent, as that is usually the one asked for.
+     */
+    private static int indexOf(Event[] events, String id) {
+        for (int i = events.length - 1; i >= 0; i--) {
+            if (id.equals(events[i].getId())) return i;
+        }
+        return -1;
+    }
+
+}
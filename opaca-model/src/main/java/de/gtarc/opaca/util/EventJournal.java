@@ -0,0 +1,465 @@
+package de.gtarc.opaca.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import de.gtarc.opaca.model.Event;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Append-only journal of all events, for keeping a longer history than fits in memory, and across restarts.
+ *
+ * Events are written to segment files in a directory, each memory-mapped while it is written to. Each segment
+ * starts with a small header (magic number and creation time), followed by one record per event, consisting
+ * of its length and the event encoded in Smile (binary JSON). The length is written last, so an incomplete
+ * record, e.g. after a crash, is treated as the end of the segment. The lock is only held for reserving space
+ * for the record; encoding the event and copying it to the segment is done outside of it, so records may be
+ * completed out of order, and readers only see the records up to the first one still being written. A new
+ * segment is started if the current one is full or too old, and on each start; old segments are deleted if
+ * they are older than the retention time or if the journal gets too large. Only creating the new segment
+ * blocks the thread adding the event; flushing and shrinking the previous segment and deleting old ones is
+ * done in the background. If the new segment can not be created, e.g. because the disk is full, the journal
+ * is disabled.
+ */
+@Log
+public class EventJournal implements Closeable {
+
+    private static final int MAGIC = 0x4f50454a;  // "OPEJ"
+
+    private static final int HEADER_SIZE = 12;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("events-(\\d+)\\.journal");
+
+    private static final SmileMapper mapper = SmileMapper.builder()
+            .disable(SmileGenerator.Feature.WRITE_HEADER)
+            .disable(SmileParser.Feature.REQUIRE_HEADER)
+            .build();
+
+    private static final ObjectWriter writer = mapper.writerFor(Event.class);
+
+    private static final ObjectReader reader = mapper.readerFor(Event.class);
+
+    private final Path directory;
+
+    /** size of new segments in bytes */
+    private final int segmentSize;
+
+    /** time in milliseconds after which to start a new segment; 0 or less for no limit */
+    private final long segmentMaxAgeMs;
+
+    /** time in milliseconds after which to delete old segments; 0 or less for no limit */
+    private final long retentionMs;
+
+    /** maximum size of all segments in bytes, after which to delete old segments; 0 or less for no limit */
+    private final long maxTotalSize;
+
+    /** segments that are no longer written to, oldest first */
+    private final List<Segment> closed = new ArrayList<>();
+
+    /** segment currently written to, null after closing or disabling the journal */
+    private Segment active;
+
+    /** held while creating a new segment, so the other threads do not have to hold the main lock meanwhile */
+    private final Object rotationLock = new Object();
+
+    /** for shrinking segments that are no longer written to and for deleting old ones */
+    private final ExecutorService maintenance = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "event-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Segment {
+        final long index;
+        final Path path;
+        final long createdAt;
+        /** end of data, i.e. where the next record is written (while active) */
+        int end;
+        /** number of records reserved but not yet completely written */
+        int writers;
+        /** mapped file, while active and until the file has been shrunk to its actual size */
+        MappedByteBuffer buffer;
+
+        Segment(long index, Path path, long createdAt, int end) {
+            this.index = index;
+            this.path = path;
+            this.createdAt = createdAt;
+            this.end = end;
+        }
+    }
+
+    public EventJournal(Path directory, int segmentSize, long segmentMaxAgeMs, long retentionMs, long maxTotalSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segmentMaxAgeMs = segmentMaxAgeMs;
+        this.retentionMs = retentionMs;
+        this.maxTotalSize = maxTotalSize;
+
+        Files.createDirectories(directory);
+        try (var files = Files.list(directory)) {
+            for (Path path : files.sorted().collect(Collectors.toList())) {
+                var matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (! matcher.matches()) continue;
+                var segment = readHeader(path, Long.parseLong(matcher.group(1)));
+                if (segment != null) closed.add(segment);
+            }
+        }
+        var now = System.currentTimeMillis();
+        active = openSegment(closed.isEmpty() ? 0 : closed.get(closed.size() - 1).index + 1, 0, now);
+        deleteSegments(selectForRetention(now));
+        log.info(String.format("Event journal in %s with %d existing segments", directory, closed.size()));
+    }
+
+    /**
+     * Append the event to the journal. Errors are only logged, so as not to fail the request causing the event.
+     */
+    public void append(Event event) {
+        byte[] bytes;
+        try {
+            bytes = writer.writeValueAsBytes(event);
+        } catch (JsonProcessingException e) {
+            log.warning("Failed to encode event for journal: " + e.getMessage());
+            return;
+        }
+        Segment current;
+        ByteBuffer buffer;
+        int offset;
+        while (true) {
+            synchronized (this) {
+                current = active;
+                if (current == null) return;
+                var now = System.currentTimeMillis();
+                var full = current.end + 4 + bytes.length > current.buffer.capacity();
+                var expired = segmentMaxAgeMs > 0 && now - current.createdAt >= segmentMaxAgeMs && current.end > HEADER_SIZE;
+                if (! full && ! expired) {
+                    buffer = current.buffer.duplicate();
+                    offset = current.end;
+                    current.end += 4 + bytes.length;
+                    current.writers++;
+                    break;
+                }
+            }
+            rotate(current, bytes.length);
+        }
+        // write the record outside the lock, the length last, after the data is visible to other threads
+        try {
+            buffer.position(offset + 4);
+            buffer.put(bytes);
+            VarHandle.releaseFence();
+            buffer.putInt(offset, bytes.length);
+        } finally {
+            synchronized (this) {
+                if (--current.writers == 0) notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Get the last n events in the journal (or all, if n is negative), oldest first, e.g. for restoring the
+     * event history after a restart. Only those events are decoded, starting with the newest segment.
+     */
+    public List<Event> getLastEvents(int n) {
+        List<Event> events = new ArrayList<>();
+        var segments = getSegments();
+        Collections.reverse(segments);
+        for (ByteBuffer segment : segments) {
+            if (n >= 0 && events.size() >= n) break;
+            var offsets = getOffsets(segment);
+            for (int i = offsets.size() - 1; i >= 0 && (n < 0 || events.size() < n); i--) {
+                var event = decode(segment, offsets.get(i));
+                if (event != null) events.add(event);
+            }
+        }
+        Collections.reverse(events);
+        return events;
+    }
+
+    /**
+     * Get events matching the filter, oldest first, after the event with the given ID (if not null) and with
+     * a timestamp after the given one (if not null), up to the given number of events (if positive). Returns
+     * null if the event with the given ID is not in the journal. Segments that can only contain older events
+     * are skipped, and while looking for the event with the given ID, only records containing it are decoded.
+     */
+    public List<Event> getEvents(String afterId, Long afterTimestamp, int limit, Predicate<Event> filter) {
+        var idBytes = afterId != null ? afterId.getBytes(StandardCharsets.UTF_8) : null;
+        var found = afterId == null;
+        List<Event> events = new ArrayList<>();
+        var segments = getSegments();
+        for (int s = 0; s < segments.size() && (limit <= 0 || events.size() < limit); s++) {
+            var segment = segments.get(s);
+            // all events in a segment have been created before the next segment was started
+            if (afterTimestamp != null && s + 1 < segments.size() && segments.get(s + 1).getLong(4) <= afterTimestamp) {
+                continue;
+            }
+            for (int offset : getOffsets(segment)) {
+                if (limit > 0 && events.size() >= limit) break;
+                if (! found) {
+                    if (contains(segment, offset, idBytes)) {
+                        var event = decode(segment, offset);
+                        found = event != null && afterId.equals(event.getId());
+                    }
+                    continue;
+                }
+                var event = decode(segment, offset);
+                if (event != null && (afterTimestamp == null || event.getTimestamp() > afterTimestamp) && filter.test(event)) {
+                    events.add(event);
+                }
+            }
+        }
+        return found ? events : null;
+    }
+
+    /**
+     * Stop writing to the journal, shrinking the current segment to its actual size, after waiting for
+     * the pending background tasks.
+     */
+    @Override
+    public void close() throws IOException {
+        Segment last;
+        synchronized (this) {
+            last = active;
+            active = null;
+            if (last != null) closed.add(last);
+        }
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (last != null) {
+            shrink(last);
+        }
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    private Segment readHeader(Path path, long index) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                log.warning("Ignoring invalid journal segment " + path);
+                return null;
+            }
+            return new Segment(index, path, header.getLong(4), (int) channel.size());
+        }
+    }
+
+    /**
+     * Replace the full (or expired) segment with a new one, unless another thread has already done so. The
+     * previous segment is then shrunk, and old segments deleted, in the background. If the new segment can
+     * not be created, the journal is disabled, instead of failing each further attempt to add an event.
+     */
+    private void rotate(Segment full, int recordSize) {
+        synchronized (rotationLock) {
+            synchronized (this) {
+                if (active != full) return;
+            }
+            var now = System.currentTimeMillis();
+            Segment next = null;
+            try {
+                next = openSegment(full.index + 1, recordSize, now);
+            } catch (IOException | RuntimeException e) {
+                log.severe("Failed to start new journal segment, disabling the journal: " + e);
+            }
+            List<Segment> expired;
+            synchronized (this) {
+                if (active != full) return;  // closed in the meantime
+                closed.add(full);
+                active = next;
+                expired = selectForRetention(now);
+            }
+            try {
+                maintenance.execute(() -> {
+                    try {
+                        shrink(full);
+                    } catch (IOException e) {
+                        log.warning("Failed to shrink journal segment " + full.path + ": " + e);
+                    }
+                    deleteSegments(expired);
+                });
+            } catch (RejectedExecutionException e) {
+                // journal is being closed, the segment stays in its full size until the next start
+                log.fine(() -> "Not shrinking journal segment " + full.path + ": " + e);
+            }
+        }
+    }
+
+    private Segment openSegment(long index, int recordSize, long now) throws IOException {
+        var path = directory.resolve(String.format("events-%020d.journal", index));
+        var size = Math.max(segmentSize, HEADER_SIZE + 4 + recordSize);
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putLong(4, now);
+            var segment = new Segment(index, path, now, HEADER_SIZE);
+            segment.buffer = buffer;
+            return segment;
+        }
+    }
+
+    /**
+     * Flush a segment that is no longer written to and shrink its file to the actual size; until then, it is
+     * read from its mapped buffer, as reading a mapping beyond the end of a file that has been shrunk fails.
+     */
+    private void shrink(Segment segment) throws IOException {
+        MappedByteBuffer buffer;
+        synchronized (this) {
+            while (segment.writers > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            buffer = segment.buffer;
+        }
+        if (buffer == null) return;
+        buffer.force();
+        try (var channel = FileChannel.open(segment.path, StandardOpenOption.WRITE)) {
+            channel.truncate(segment.end);
+        }
+        synchronized (this) {
+            segment.buffer = null;
+        }
+    }
+
+    /**
+     * Remove the oldest segments from the list while they are too old or the journal is too large, but never
+     * the current one, and get them for deleting their files.
+     */
+    private synchronized List<Segment> selectForRetention(long now) {
+        long total = active != null ? active.buffer.capacity() : 0;
+        for (Segment segment : closed) {
+            total += segment.buffer != null ? segment.buffer.capacity() : segment.end;
+        }
+        List<Segment> expired = new ArrayList<>();
+        while (! closed.isEmpty()) {
+            var oldest = closed.get(0);
+            var next = closed.size() > 1 ? closed.get(1) : active;
+            var tooOld = retentionMs > 0 && next != null && next.createdAt < now - retentionMs;
+            var tooLarge = maxTotalSize > 0 && total > maxTotalSize;
+            if (! tooOld && ! tooLarge) break;
+            closed.remove(0);
+            total -= oldest.buffer != null ? oldest.buffer.capacity() : oldest.end;
+            expired.add(oldest);
+        }
+        return expired;
+    }
+
+    private void deleteSegments(List<Segment> segments) {
+        for (Segment segment : segments) {
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                log.warning("Failed to delete journal segment " + segment.path + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Get read-only views of all segments, oldest first, each limited to the data written so far.
+     */
+    private List<ByteBuffer> getSegments() {
+        List<Segment> segments = new ArrayList<>();
+        List<ByteBuffer> mapped = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : closed) {
+                segments.add(segment);
+                mapped.add(segment.buffer != null ? segment.buffer.asReadOnlyBuffer().limit(segment.end) : null);
+            }
+            if (active != null) {
+                segments.add(active);
+                mapped.add(active.buffer.asReadOnlyBuffer().limit(active.end));
+            }
+        }
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            if (mapped.get(i) != null) {
+                buffers.add(mapped.get(i));
+                continue;
+            }
+            var segment = segments.get(i);
+            try (var channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IOException e) {
+                // segment has been deleted in the meantime
+                log.fine(() -> "Skipping journal segment " + segment.path + ": " + e);
+            }
+        }
+        return buffers;
+    }
+
+    /**
+     * Get the offsets of all complete records in the segment.
+     */
+    private static List<Integer> getOffsets(ByteBuffer segment) {
+        List<Integer> offsets = new ArrayList<>();
+        var offset = HEADER_SIZE;
+        while (offset + 4 <= segment.limit()) {
+            var length = segment.getInt(offset);
+            if (length <= 0 || offset + 4 + length > segment.limit()) break;
+            offsets.add(offset);
+            offset += 4 + length;
+        }
+        // pairs with the release fence when appending, so the data of each record is visible after its length
+        VarHandle.acquireFence();
+        return offsets;
+    }
+
+    private static Event decode(ByteBuffer segment, int offset) {
+        var bytes = new byte[segment.getInt(offset)];
+        segment.duplicate().position(offset + 4).get(bytes);
+        try {
+            return reader.readValue(bytes);
+        } catch (IOException e) {
+            log.warning("Failed to decode event from journal: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Check whether the record contains the given bytes, e.g. an event ID, without decoding it.
+     */
+    private static boolean contains(ByteBuffer segment, int offset, byte[] bytes) {
+        var start = offset + 4;
+        var end = start + segment.getInt(offset) - bytes.length;
+        outer:
+        for (int i = start; i <= end; i++) {
+            for (int k = 0; k < bytes.length; k++) {
+                if (segment.get(i + k) != bytes[k]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -2,26 +2,41 @@ package de.gtarc.opaca.util;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.json.JsonMapper;
 import de.gtarc.opaca.model.ErrorResponse;
 import de.gtarc.opaca.model.Event;
 import lombok.AllArgsConstructor;
+import lombok.Builder;
 import lombok.Getter;
 import lombok.extern.java.Log;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.util.Comparator;
-import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
- * Helper class for issuing different REST calls in Java.
+ * Helper class for issuing different REST calls in Java. All instances share one HTTP client,
+ * keeping connections to the same host alive for reuse, up to a maximum number per host.
+ * All requests are sent asynchronously; the blocking methods just wait for the result.
  */
 @Log
 @AllArgsConstructor
@@ -31,23 +46,32 @@ public class RestHelper {
     public final String senderId;
     public final String token;
 
-    public static final ObjectMapper mapper = JsonMapper.builder()
-            .findAndAddModules().build();
+    public static final ObjectMapper mapper = DataFormat.JSON.getMapper();
+
+    /** settings shared by all instances, see {@link #configure(Settings)} */
+    private static volatile Settings settings = Settings.builder().build();
+
+    /** shared by all instances, so connections to the same host can be reused */
+    private static volatile HttpClient httpClient;
+
+    /** connection limits and statistics, by scheme, host and port */
+    private static final Map<String, HostConnections> hosts = new ConcurrentHashMap<>();
 
 
     public <T> T get(String path, Class<T> type) throws IOException {
-        var stream = request("GET", path, null);
-        return type == null ? null : mapper.readValue(stream, type);
+        return await(getAsync(path, type));
+    }
+
+    public <T> T get(String path, TypeReference<T> type) throws IOException {
+        return await(getAsync(path, type));
     }
 
     public <T> T post(String path, Object payload, Class<T> type) throws IOException {
-        var stream = request("POST", path, payload);
-        return type == null ? null : mapper.readValue(stream, type);
+        return await(postAsync(path, payload, type));
     }
 
     public <T> T delete(String path, Object payload, Class<T> type) throws IOException {
-        var stream = request("DELETE", path, payload);
-        return type == null ? null : mapper.readValue(stream, type);
+        return await(deleteAsync(path, payload, type));
     }
 
     public void postStream(String path, byte[] inputStream) {
@@ -59,75 +83,185 @@ public class RestHelper {
     }
 
     public void streamRequest(String method, String path, byte[] payload) throws IOException {
-        // TODO find a way to unify this with "request" below, maybe with a callback to serialize the payload?
-        HttpURLConnection connection = (HttpURLConnection) URI.create(baseUrl + path).toURL().openConnection();
-        connection.setRequestMethod(method);
-        connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+        await(streamRequestAsync(method, path, payload));
+    }
 
-        if (senderId != null && ! senderId.isEmpty()) {
-            connection.setRequestProperty(Event.HEADER_SENDER_ID, senderId);
-        }
-        if (token != null && !token.isEmpty()) {
-            connection.setRequestProperty("Authorization", "Bearer " + token);
-        }
+    public InputStream request(String method, String path, Object payload) throws IOException {
+        return await(requestAsync(method, path, payload));
+    }
 
-        connection.setDoOutput(true);
-        connection.connect();
+    /**
+     * Settings for all requests made with the RestHelper, e.g. from the configuration of the Runtime Platform.
+     * The time after which idle connections are closed is not among those, as the HTTP client only reads it
+     * from the JVM-wide system property "jdk.httpclient.keepalive.timeout" (in seconds, default 1200).
+     */
+    @Getter @Builder(toBuilder = true)
+    public static class Settings {
 
-        createForwardEvent(method, path);
+        /**
+         * binary format to ask for in responses, and to use for request bodies once the host has responded in
+         * that format, thus showing that it supports it; JSON for always using JSON
+         */
+        @Builder.Default
+        private final DataFormat preferredFormat = DataFormat.JSON;
+
+        /** maximum number of concurrent connections to a single host; applies to hosts not contacted yet */
+        @Builder.Default
+        private final int maxConnectionsPerHost = 64;
+
+        /** timeout in milliseconds for waiting for a free connection to a host, 0 for none */
+        @Builder.Default
+        private final long connectionWaitTimeoutMs = 0;
+
+        /** timeout in milliseconds for establishing a connection, 0 for none */
+        @Builder.Default
+        private final long connectTimeoutMs = 0;
+
+        /** default timeout in milliseconds for receiving the response to a request, 0 for none */
+        @Builder.Default
+        private final long requestTimeoutMs = 0;
+
+        /**
+         * whether to ask for compressed responses, which are then decompressed transparently; this only pays
+         * off for slower connections, see CompressionBenchmark
+         */
+        @Builder.Default
+        private final boolean acceptCompressed = false;
+    }
 
-        try (OutputStream os = connection.getOutputStream();
-            InputStream inputStream = new ByteArrayInputStream(payload);
-            BufferedInputStream bis = new BufferedInputStream(inputStream)) {
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = bis.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
+    /**
+     * Set the settings for all further requests. This should be done before the first request, as the
+     * connect timeout is fixed once the HTTP client has been created; it is not replaced afterwards, as the
+     * old client and its connections and threads could not be released before they time out on their own.
+     */
+    public static void configure(Settings newSettings) {
+        synchronized (RestHelper.class) {
+            if (httpClient != null && newSettings.connectTimeoutMs != settings.connectTimeoutMs) {
+                log.warning(String.format("Connect timeout can only be set before the first request, keeping %d ms",
+                        settings.connectTimeoutMs));
+                newSettings = newSettings.toBuilder().connectTimeoutMs(settings.connectTimeoutMs).build();
             }
-        } finally {
-            connection.disconnect();
+            settings = newSettings;
         }
+    }
 
-        if (connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
-            throw makeException(connection);
-        }
+    public static Settings getSettings() {
+        return settings;
     }
 
-    public InputStream request(String method, String path, Object payload) throws IOException {
-        log.info(String.format("%s %s%s (%s)", method, baseUrl, path, payload));
-        HttpURLConnection connection = (HttpURLConnection) URI.create(baseUrl + path).toURL().openConnection();
-        connection.setRequestMethod(method);
-        connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+    /*
+     * ASYNCHRONOUS REQUESTS
+     */
 
-        if (senderId != null && ! senderId.isEmpty()) {
-            connection.setRequestProperty(Event.HEADER_SENDER_ID, senderId);
-        }
-        if (token != null && ! token.isEmpty()) {
-            connection.setRequestProperty("Authorization", "Bearer " + token);
-        }
-        
-        if (payload != null) {
-            String json = mapper.writeValueAsString(payload);
-            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
-            connection.setDoOutput(true);
-            connection.setFixedLengthStreamingMode(bytes.length);
-            connection.connect();
-            try (OutputStream os = connection.getOutputStream()) {
-                os.write(bytes);
-            }
-        } else {
-            connection.connect();
-        }
+    public <T> CompletableFuture<T> getAsync(String path, Class<T> type) {
+        return callAsync("GET", path, null, toJavaType(type), settings.requestTimeoutMs);
+    }
+
+    public <T> CompletableFuture<T> getAsync(String path, TypeReference<T> type) {
+        return callAsync("GET", path, null, mapper.getTypeFactory().constructType(type), settings.requestTimeoutMs);
+    }
+
+    public <T> CompletableFuture<T> postAsync(String path, Object payload, Class<T> type) {
+        return callAsync("POST", path, payload, toJavaType(type), settings.requestTimeoutMs);
+    }
+
+    /**
+     * Like postAsync, but with a different timeout for receiving the response, e.g. depending on the
+     * timeout of an action, in milliseconds, or 0 for no timeout.
+     */
+    public <T> CompletableFuture<T> postAsync(String path, Object payload, Class<T> type, long timeoutMs) {
+        return callAsync("POST", path, payload, toJavaType(type), timeoutMs);
+    }
 
+    public <T> CompletableFuture<T> deleteAsync(String path, Object payload, Class<T> type) {
+        return callAsync("DELETE", path, payload, toJavaType(type), settings.requestTimeoutMs);
+    }
+
+    /**
+     * Send the raw bytes, e.g. the content of a stream, as request body, ignoring the response body.
+     */
+    public CompletableFuture<Void> streamRequestAsync(String method, String path, byte[] payload) {
         createForwardEvent(method, path);
+        var sent = sendAsync(method, path, payload, DataFormat.JSON, DataFormat.JSON, settings.requestTimeoutMs);
+        return withCancellation(sent.thenApply(body -> (Void) null), sent);
+    }
 
-        if (connection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST) {
-            return connection.getInputStream();
-        } else {
-            throw makeException(connection);
+    /**
+     * Send the request and get the response body as a stream, as soon as the response headers have been
+     * received. The stream has to be closed (or read to the end) to free the connection for the next request.
+     */
+    public CompletableFuture<InputStream> requestAsync(String method, String path, Object payload) {
+        createForwardEvent(method, path);
+        var body = toBytes(payload, DataFormat.JSON);
+        var request = buildRequest(method, path, body, DataFormat.JSON, DataFormat.JSON, settings.requestTimeoutMs);
+        var connections = getConnections(request.uri());
+        var sent = send(request, body, connections, HttpResponse.BodyHandlers.ofInputStream());
+        return withCancellation(sent.handle((response, error) -> {
+                    if (error != null) {
+                        throw asCompletionException(error);
+                    }
+                    var tracked = connections.track(response.body());
+                    InputStream stream;
+                    try {
+                        stream = decompress(tracked, response.headers());
+                    } catch (IOException e) {
+                        closeQuietly(tracked);
+                        throw new CompletionException(e);
+                    }
+                    if (response.statusCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                        try (stream) {
+                            throw new CompletionException(makeException(response.statusCode(), stream.readAllBytes(), DataFormat.JSON));
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }
+                    return stream;
+                }), sent);
+    }
+
+    /**
+     * Wait for the result of an asynchronous request, throwing the original exception if it failed.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            var cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
         }
     }
-    
+
+    /**
+     * Cancel the source future, e.g. a request, when the given future derived from it is cancelled, as
+     * cancelling a CompletableFuture does not affect the stages it depends on. Returns the given future.
+     */
+    public static <T> CompletableFuture<T> withCancellation(CompletableFuture<T> future, CompletableFuture<?> source) {
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) source.cancel(true);
+        });
+        return future;
+    }
+
+    /**
+     * Get number of active connections and total requests for each host that requests have been sent to.
+     */
+    public static Map<String, Map<String, Object>> getConnectionStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<>();
+        hosts.forEach((host, connections) -> stats.put(host, Map.of(
+                "maxConnections", connections.maxConnections,
+                "activeConnections", connections.getActive(),
+                "requests", connections.requests.get(),
+                "format", connections.format.name()
+        )));
+        return stats;
+    }
+
     public static JsonNode readJson(String json) throws IOException {
         return mapper.readTree(json);
     }
@@ -146,22 +280,339 @@ public class RestHelper {
     }
 
     public String readStream(InputStream stream) {
-        return stream == null ? null : new BufferedReader(new InputStreamReader(stream))
-                .lines().collect(Collectors.joining("\n"));
+        if (stream == null) return null;
+        try (stream) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Make the request and parse the response, which is read completely before the connection is freed.
+     * Plain strings are always sent as JSON, and not asked for in binary format, as some routes read
+     * and write those as raw text independent of the content type.
+     */
+    private <T> CompletableFuture<T> callAsync(String method, String path, Object payload, JavaType type, long timeoutMs) {
+        createForwardEvent(method, path);
+        var preferredFormat = settings.preferredFormat;
+        var hostFormat = getConnections(URI.create(baseUrl + path)).format;
+        var bodyFormat = payload instanceof String || hostFormat != preferredFormat ? DataFormat.JSON : hostFormat;
+        var accept = type == null || type.hasRawClass(String.class) ? DataFormat.JSON : preferredFormat;
+        var sent = sendAsync(method, path, toBytes(payload, bodyFormat), bodyFormat, accept, timeoutMs);
+        return withCancellation(sent.thenApply(body -> {
+            try {
+                // some routes do not return anything, e.g. /broadcast of an Agent Container
+                return type == null || body.content.length == 0 ? null : body.format.getReader(type).readValue(body.content);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }), sent);
+    }
+
+    private CompletableFuture<Body> sendAsync(String method, String path, byte[] body, DataFormat bodyFormat, DataFormat accept, long timeoutMs) {
+        var request = buildRequest(method, path, body, bodyFormat, accept, timeoutMs);
+        var connections = getConnections(request.uri());
+        var sent = send(request, body, connections, HttpResponse.BodyHandlers.ofByteArray());
+        return withCancellation(sent.thenApply(response -> {
+                    connections.release();
+                    var format = DataFormat.forContentType(response.headers().firstValue("Content-Type").orElse(null));
+                    if (format.isBinary() && format == settings.preferredFormat) {
+                        connections.format = format;
+                    }
+                    byte[] content;
+                    try (var stream = decompress(new ByteArrayInputStream(response.body()), response.headers())) {
+                        content = stream.readAllBytes();
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                    if (response.statusCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                        throw new CompletionException(makeException(response.statusCode(), content, format));
+                    }
+                    return new Body(content, format);
+                }), sent);
+    }
+
+    /**
+     * Send the request using the shared HTTP client once there is a free connection to the host, without
+     * blocking the calling thread. If the request fails, the connection is released right away, otherwise
+     * it has to be released when the response has been read. Cancelling the returned future stops waiting
+     * for a connection, or aborts the request if it has already been sent.
+     */
+    private <B> CompletableFuture<HttpResponse<B>> send(HttpRequest request, byte[] body, HostConnections connections, HttpResponse.BodyHandler<B> handler) {
+        var start = System.nanoTime();
+        var result = new CompletableFuture<HttpResponse<B>>();
+        var waiter = connections.acquire(settings.connectionWaitTimeoutMs);
+        waiter.whenComplete((ignored, waitError) -> {
+            if (waitError != null) {
+                // no connection has been acquired
+                result.completeExceptionally(waitError);
+                return;
+            }
+            if (result.isDone()) {
+                // cancelled just before getting the connection
+                connections.release();
+                return;
+            }
+            connections.requests.incrementAndGet();
+            var exchange = getHttpClient().sendAsync(request, handler);
+            withCancellation(result, exchange);
+            exchange.whenComplete((response, error) -> {
+                if (error != null) {
+                    connections.release();
+                    result.completeExceptionally(error);
+                } else if (! result.complete(response)) {
+                    // cancelled in the meantime, so nobody is going to read the response
+                    if (response.body() instanceof InputStream) closeQuietly((InputStream) response.body());
+                    connections.release();
+                }
+            });
+        });
+        withCancellation(result, waiter);
+        if (AccessLog.isEnabled()) {
+            result.whenComplete((response, error) -> logRequest(request, body, response, error, start));
+        }
+        return result;
+    }
+
+    /**
+     * Add entry to the access log; the payload is only included if it is JSON.
+     */
+    private void logRequest(HttpRequest request, byte[] body, HttpResponse<?> response, Throwable error, long start) {
+        var uri = request.uri();
+        var route = uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + "?" + uri.getRawQuery();
+        var isJson = request.headers().firstValue("Content-Type").map(DataFormat::forContentType).orElse(DataFormat.JSON) == DataFormat.JSON;
+        var responseBytes = response != null && response.body() instanceof byte[] ? ((byte[]) response.body()).length : -1;
+        var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        AccessLog.log(new AccessLog.Entry("out", request.method(), route, baseUrl,
+                response != null ? response.statusCode() : -1, AccessLog.since(start),
+                body != null ? body.length : 0, responseBytes, isJson ? body : null,
+                cause != null ? cause.toString() : null));
+    }
+
+    private HttpRequest buildRequest(String method, String path, byte[] body, DataFormat bodyFormat, DataFormat accept, long timeoutMs) {
+        var uri = URI.create(baseUrl + path);
+        var request = HttpRequest.newBuilder(uri)
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body))
+                .header("Content-Type", bodyFormat.isBinary() ? bodyFormat.getMediaType() : "application/json; charset=UTF-8");
+        if (accept.isBinary()) {
+            request.header("Accept", accept.getMediaType() + ", application/json;q=0.9");
+        }
+        if (settings.acceptCompressed) {
+            request.header("Accept-Encoding", "gzip, deflate");
+        }
+        if ("http".equalsIgnoreCase(uri.getScheme())) {
+            // HTTP/2 is only negotiated for TLS connections, do not try to upgrade plain ones
+            request.version(HttpClient.Version.HTTP_1_1);
+        }
+        if (timeoutMs > 0) {
+            request.timeout(Duration.ofMillis(timeoutMs));
+        }
+        if (senderId != null && ! senderId.isEmpty()) {
+            request.header(Event.HEADER_SENDER_ID, senderId);
+        }
+        if (token != null && ! token.isEmpty()) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        var call = CallContext.getCall();
+        if (call != null && call.getCorrelationId() != null) {
+            request.header(Event.HEADER_CORRELATION_ID, call.getCorrelationId());
+        }
+        return request.build();
+    }
+
+    private static HostConnections getConnections(URI uri) {
+        return hosts.computeIfAbsent(uri.getScheme() + "://" + uri.getAuthority(), h -> new HostConnections(h, settings.maxConnectionsPerHost));
+    }
+
+    private static JavaType toJavaType(Class<?> type) {
+        return type == null ? null : mapper.getTypeFactory().constructType(type);
+    }
+
+    private static byte[] toBytes(Object payload, DataFormat format) {
+        try {
+            return payload == null ? null : format.getWriter().writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Wrap the response body to be decompressed according to the Content-Encoding header, if any.
+     */
+    private static InputStream decompress(InputStream body, HttpHeaders headers) throws IOException {
+        var encoding = headers.firstValue("Content-Encoding").orElse("identity").trim();
+        switch (encoding.toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(body);
+            case "deflate":
+                return new InflaterInputStream(body);
+            case "identity":
+                return body;
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + encoding);
+        }
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.warning("Failed to close response stream: " + e.getMessage());
+        }
+    }
+
+    private static CompletionException asCompletionException(Throwable error) {
+        return error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
     }
 
-    private IOException makeException(HttpURLConnection connection) throws IOException {
+    private IOException makeException(int statusCode, byte[] errorBody, DataFormat format) {
         var message = "Encountered an error when sending request to connected platform or container.";
-        var response = readStream(connection.getErrorStream());
         try {
-            var nestedError = mapper.readValue(response, ErrorResponse.class);
+            var nestedError = format.getReader(toJavaType(ErrorResponse.class)).<ErrorResponse>readValue(errorBody);
             return new RequestException(message, nestedError);
-        } catch (JsonProcessingException e) {
-            var nestedError = new ErrorResponse(connection.getResponseCode(), response, null);
+        } catch (IOException e) {
+            var nestedError = new ErrorResponse(statusCode, new String(errorBody, StandardCharsets.UTF_8), null);
             return new RequestException(message, nestedError);
         }
     }
 
+    private static HttpClient getHttpClient() {
+        var client = httpClient;
+        if (client == null) {
+            synchronized (RestHelper.class) {
+                client = httpClient;
+                if (client == null) {
+                    var builder = HttpClient.newBuilder()
+                            .version(HttpClient.Version.HTTP_2)
+                            .followRedirects(HttpClient.Redirect.NORMAL);
+                    if (settings.connectTimeoutMs > 0) {
+                        builder.connectTimeout(Duration.ofMillis(settings.connectTimeoutMs));
+                    }
+                    client = httpClient = builder.build();
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Limits the number of concurrent connections to a single host. Each request holds a connection until
+     * its response has been read or closed, after which the connection is returned to the HTTP client's pool,
+     * or handed directly to the next request waiting for a connection to the same host.
+     */
+    private static class HostConnections {
+
+        final String host;
+        final int maxConnections;
+        final AtomicLong requests = new AtomicLong();
+
+        /** format to use for request bodies, i.e. the binary format the host has responded with, if any */
+        volatile DataFormat format = DataFormat.JSON;
+
+        private int available;
+        private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+        HostConnections(String host, int maxConnections) {
+            this.host = host;
+            this.maxConnections = maxConnections;
+            this.available = maxConnections;
+        }
+
+        /**
+         * Get a future that is completed as soon as there is a free connection, or fails with an
+         * HttpTimeoutException if there is none within the given timeout (if positive).
+         */
+        synchronized CompletableFuture<Void> acquire(long timeoutMs) {
+            if (available > 0) {
+                available--;
+                return CompletableFuture.completedFuture(null);
+            }
+            var waiter = new CompletableFuture<Void>();
+            waiting.add(waiter);
+            if (timeoutMs > 0) {
+                CompletableFuture.delayedExecutor(timeoutMs, TimeUnit.MILLISECONDS).execute(() -> waiter.completeExceptionally(
+                        new HttpTimeoutException(String.format("No free connection to %s within %d ms", host, timeoutMs))));
+            }
+            // timed out or cancelled waiters do not have to wait for their turn to be removed
+            waiter.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    synchronized (this) {
+                        waiting.remove(waiter);
+                    }
+                }
+            });
+            return waiter;
+        }
+
+        void release() {
+            while (true) {
+                CompletableFuture<Void> next;
+                synchronized (this) {
+                    next = waiting.poll();
+                    if (next == null) {
+                        available++;
+                        return;
+                    }
+                }
+                // outside of the lock, as this starts the next request; skip waiters that have been cancelled
+                if (next.complete(null)) return;
+            }
+        }
+
+        synchronized int getActive() {
+            return maxConnections - available;
+        }
+
+        InputStream track(InputStream stream) {
+            var released = new AtomicBoolean(false);
+            return new FilterInputStream(stream) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b == -1) release();
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n == -1) release();
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release();
+                    }
+                }
+
+                private void release() {
+                    if (released.compareAndSet(false, true)) {
+                        HostConnections.this.release();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Response body together with the format it is encoded in.
+     */
+    private static class Body {
+        final byte[] content;
+        final DataFormat format;
+
+        Body(byte[] content, DataFormat format) {
+            this.content = content;
+            this.format = format;
+        }
+    }
+
     @Getter
     public static class RequestException extends IOException {
 
@@ -174,16 +625,14 @@ public class RestHelper {
     }
 
     /**
-     * Get the latest CALL Event with same method and add FORWARD event related to that, if any.
-     * This does nothing if the Event History is empty, e.g. in the AgentContainer.
+     * Add FORWARD event related to the CALL event of the request currently being handled, if any, and
+     * if this request forwards it to the same route. This does nothing outside of a CALL, e.g. in the
+     * AgentContainer.
      */
     private void createForwardEvent(String method, String path) {
-        var key = String.format("%s %s", method, path.split("\\?")[0]); // part before the query
-        Optional<Event> related = EventHistory.getInstance().getEvents().stream()
-                .filter(x -> x.getEventType() == Event.EventType.CALL && x.getRoute().equals(key))
-                .max(Comparator.comparing(Event::getTimestamp));
-        if (related.isPresent()) {
-            Event event = new Event(Event.EventType.FORWARD, null, null, baseUrl, null, related.get().getId());
+        var related = CallContext.getCall();
+        if (related != null && related.getRoute().equals(String.format("%s %s", method, path.split("\\?")[0]))) {
+            Event event = new Event(Event.EventType.FORWARD, null, null, baseUrl, null, related.getId(), related.getCorrelationId());
             EventHistory.getInstance().addEvent(event);
         }
     }
@@ -0,0 +1,167 @@
+package de.gtarc.opaca.platform;
+
+import de.gtarc.opaca.util.AccessLog;
+import jakarta.servlet.*;
+import jakarta.servlet.http.*;
+import lombok.NoArgsConstructor;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Filter adding an entry to the access log for each request to the platform, with its duration (including
+ * all other filters, e.g. for authentication) and size of the request and response body. For asynchronous
+ * requests, e.g. streams, the entry is added once the response has been completed.
+ */
+@Service @NoArgsConstructor
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class AccessLogFilter implements Filter {
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (! AccessLog.isEnabled() ||
+                ! (request instanceof HttpServletRequest) ||
+                ! (response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        var httpRequest = (HttpServletRequest) request;
+        var countingResponse = new CountingResponse((HttpServletResponse) response);
+        var start = System.nanoTime();
+        try {
+            chain.doFilter(request, countingResponse);
+        } catch (IOException | ServletException | RuntimeException e) {
+            log(httpRequest, countingResponse, start, e);
+            throw e;
+        }
+        if (httpRequest.isAsyncStarted()) {
+            httpRequest.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    log(httpRequest, countingResponse, start, null);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    log(httpRequest, countingResponse, start, event.getThrowable());
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    log(httpRequest, countingResponse, start, event.getThrowable());
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            log(httpRequest, countingResponse, start, null);
+        }
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    private void log(HttpServletRequest request, CountingResponse response, long start, Throwable error) {
+        var route = request.getQueryString() == null ? request.getRequestURI() : request.getRequestURI() + "?" + request.getQueryString();
+        AccessLog.log(new AccessLog.Entry("in", request.getMethod(), route, null,
+                error != null && response.getStatus() < 400 ? 500 : response.getStatus(), AccessLog.since(start),
+                request.getContentLengthLong(), response.count, null,
+                error != null ? error.toString() : null));
+    }
+
+    /**
+     * Response wrapper counting the bytes written to the response body (before compression, if any), either
+     * to its output stream or, encoded with the response's character encoding, to its writer.
+     */
+    private static class CountingResponse extends HttpServletResponseWrapper {
+
+        volatile long count = 0;
+
+        private ServletOutputStream stream;
+
+        private PrintWriter writer;
+
+        CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (stream == null) {
+                var original = super.getOutputStream();
+                stream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        original.write(b);
+                        count++;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        original.write(b, off, len);
+                        count += len;
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        original.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        original.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return original.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener listener) {
+                        original.setWriteListener(listener);
+                    }
+                };
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                var original = super.getWriter();
+                var charset = Charset.forName(getCharacterEncoding());
+                // not writing to the counting stream, but to the original writer, which is flushed when
+                // the response is completed, whereas an additional encoder here would have to be flushed, too
+                writer = new PrintWriter(new Writer() {
+                    @Override
+                    public void write(char[] chars, int off, int len) {
+                        original.write(chars, off, len);
+                        count += charset.encode(CharBuffer.wrap(chars, off, len)).remaining();
+                    }
+
+                    @Override
+                    public void flush() {
+                        original.flush();
+                    }
+
+                    @Override
+                    public void close() {
+                        original.close();
+                    }
+                });
+            }
+            return writer;
+        }
+    }
+
+}
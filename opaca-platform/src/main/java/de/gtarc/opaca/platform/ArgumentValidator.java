@@ -1,15 +1,19 @@
 package de.gtarc.opaca.platform;
 
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.MapMaker;
 import com.networknt.schema.JsonSchema;
 import com.networknt.schema.JsonSchemaFactory;
 import com.networknt.schema.SpecVersion;
+import de.gtarc.opaca.model.Action;
+import de.gtarc.opaca.model.AgentContainer;
 import de.gtarc.opaca.model.AgentContainerImage;
+import de.gtarc.opaca.model.AgentDescription;
 import de.gtarc.opaca.model.Parameter;
 import lombok.extern.java.Log;
 
@@ -22,65 +26,123 @@ public class ArgumentValidator {
 
     protected static final JsonSchemaFactory factory = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V7);
 
-    /** model definitions */
+    /** model definitions, including definitions-by-URL as soon as those are loaded */
     private final Map<String, JsonSchema> definitions;
 
     private final Map<String, String> definitionsByUrl;
 
-    public ArgumentValidator(AgentContainerImage image) {
+    private final SchemaLoader schemaLoader;
+
+    /** latest attempt to load each of the definitions-by-URL, by type */
+    private final Map<String, CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+
+    /** completes when all definitions-by-URL have been loaded (or failed to load) */
+    private final CompletableFuture<Void> pendingDefinitions;
+
+    /** compiled validation plans, by identity of the parameters map they were compiled for */
+    private final Map<Map<String, Parameter>, ValidationPlan> plans = new MapMaker().weakKeys().makeMap();
+
+    public ArgumentValidator(AgentContainerImage image, SchemaLoader schemaLoader) {
         this.definitions = makeSchemas(image.getDefinitions());
         this.definitionsByUrl = image.getDefinitionsByUrl();
+        this.schemaLoader = schemaLoader;
+        this.pendingDefinitions = loadSchemas();
     }
 
-    public boolean isArgsValid(Map<String, Parameter> parameters, Map<String, JsonNode> arguments) {
-        if (isAnyArgumentMissing(parameters, arguments)) return false;
-        if (isAnyArgumentRedundant(parameters, arguments)) return false;
-
-        for (String name : arguments.keySet()) {
-            var argument = arguments.get(name);
-            var type = parameters.get(name).getType();
-            var items = parameters.get(name).getItems();
-            if (! isArgumentValid(argument, type, items)) return false;
+    /**
+     * Get future completing when all definitions-by-URL have been loaded (or failed to load).
+     * Until then, arguments of those types are not type-checked.
+     */
+    public CompletableFuture<Void> getPendingDefinitions() {
+        return pendingDefinitions;
+    }
+
+    /**
+     * Compile validation plans for all actions of the container's agents, so they do not have
+     * to be created when the actions are first invoked.
+     */
+    public void compile(AgentContainer container) {
+        for (AgentDescription agent : container.getAgents()) {
+            for (Action action : agent.getActions()) {
+                getPlan(action.getParameters());
+            }
         }
+    }
 
-        return true;
+    public boolean isArgsValid(Map<String, Parameter> parameters, Map<String, JsonNode> arguments) {
+        return getPlan(parameters).isValid(arguments);
     }
 
-    private boolean isAnyArgumentMissing(Map<String, Parameter> parameters, Map<String, JsonNode> arguments) {
-        return parameters.entrySet().stream()
-                .anyMatch(entry -> entry.getValue().getRequired() && ! arguments.containsKey(entry.getKey()));
+    /**
+     * Get the validation plan for the given parameters, compiling it if it does not exist yet.
+     * Plans are kept as long as the parameter map (i.e. the action) they were created for.
+     */
+    public ValidationPlan getPlan(Map<String, Parameter> parameters) {
+        var plan = plans.get(parameters);
+        if (plan == null) {
+            plan = makePlan(parameters);
+            plans.put(parameters, plan);
+        }
+        return plan;
     }
 
-    private boolean isAnyArgumentRedundant(Map<String, Parameter> parameters, Map<String, JsonNode> arguments) {
-        return arguments.keySet().stream().anyMatch(name -> ! parameters.containsKey(name));
+    private ValidationPlan makePlan(Map<String, Parameter> parameters) {
+        int n = parameters.size();
+        var names = new String[n];
+        var checks = new ValidationPlan.TypeCheck[n];
+        var required = new boolean[n];
+        int i = 0;
+        for (var entry : parameters.entrySet()) {
+            var parameter = entry.getValue();
+            names[i] = entry.getKey();
+            checks[i] = makeCheck(parameter.getType(), parameter.getItems());
+            required[i] = ! Boolean.FALSE.equals(parameter.getRequired());
+            i++;
+        }
+        return new ValidationPlan(names, checks, required);
     }
 
-    private boolean isArgumentValid(JsonNode node, String type, Parameter.ArrayItems items) {
+    private ValidationPlan.TypeCheck makeCheck(String type, Parameter.ArrayItems items) {
         return switch (type) {
-            case "integer" -> node.isInt();
-            case "number" -> node.isNumber();
-            case "boolean" -> node.isBoolean();
-            case "string" -> node.isTextual();
-            case "null" -> node.isNull();
-            case "array" -> isValidList(node, items);
-            default -> isValidObject(node, type);
+            case "integer" -> JsonNode::isInt;
+            case "number" -> JsonNode::isNumber;
+            case "boolean" -> JsonNode::isBoolean;
+            case "string" -> JsonNode::isTextual;
+            case "null" -> JsonNode::isNull;
+            case "array" -> makeListCheck(items);
+            default -> makeObjectCheck(type);
         };
     }
 
-    private boolean isValidList(JsonNode node, Parameter.ArrayItems items) {
-        if (node.isArray() && items != null) {
-            for (JsonNode child : node) {
-                if (! isArgumentValid(child, items.getType(), items.getItems())) return false;
+    private ValidationPlan.TypeCheck makeListCheck(Parameter.ArrayItems items) {
+        if (items == null) return node -> false;
+        var itemCheck = makeCheck(items.getType(), items.getItems());
+        return node -> {
+            if (! node.isArray()) return false;
+            for (int i = 0; i < node.size(); i++) {
+                if (! itemCheck.isValid(node.get(i))) return false;
             }
             return true;
+        };
+    }
+
+    private ValidationPlan.TypeCheck makeObjectCheck(String type) {
+        if (definitions.containsKey(type)) {
+            var definition = definitions.get(type);
+            return node -> definition.validate(node).isEmpty();
         }
-        return false;
+        if (definitionsByUrl.containsKey(type)) {
+            return node -> isValidObject(node, type);
+        }
+        log.warning("No definition found for type " + type + ", skipping type-checking.");
+        return node -> true;
     }
 
     private boolean isValidObject(JsonNode node, String type) {
-        var definition = getSchema(type);
+        var definition = definitions.get(type);
         if (definition == null) {
-            log.warning("No definition found for type " + type + ", skipping type-checking.");
+            log.warning("Definition for type " + type + " not loaded (yet), skipping type-checking.");
+            loadSchema(type);
             return true;
         }
         var errors = definition.validate(node);
@@ -88,29 +150,36 @@ public class ArgumentValidator {
     }
 
     /**
-     * Get Schema corresponding to type. This will lazily fetch and parse definitions-by-URL
-     * and add them to the definitions map.
+     * Start loading the definitions-by-URL in the background and add them to the definitions
+     * map once they are available, so validating arguments never waits for a remote host.
+     */
+    private CompletableFuture<Void> loadSchemas() {
+        var futures = definitionsByUrl.keySet().stream()
+                .map(type -> loadSchema(type).exceptionally(e -> null))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Start loading the definition for the given type, unless it is already being loaded; if the last
+     * attempt failed, try again (the SchemaLoader itself limits how often it actually tries again).
      */
-    private JsonSchema getSchema(String type) {
-        if (definitions.containsKey(type)) return definitions.get(type);
-        if (!definitionsByUrl.containsKey(type)) return null;
+    private CompletableFuture<Void> loadSchema(String type) {
         var url = definitionsByUrl.get(type);
-        try {
-            var schema = factory.getSchema(new URI(url));
-            log.info("Created schema for " + type + " from " + url);
-            definitions.put(type, schema);
-            return schema;
-        } catch (URISyntaxException e) {
-            log.severe("Could not load schema for " + type + " from " + url + ": " + e.getMessage());
-            return null;
-        }
+        return loading.compute(type, (t, previous) -> previous != null && ! previous.isCompletedExceptionally()
+                ? previous
+                : schemaLoader.load(url).thenAccept(json -> {
+                    var schema = factory.getSchema(URI.create(url), json);
+                    log.info("Created schema for " + type + " from " + url);
+                    definitions.put(type, schema);
+                }));
     }
 
     /**
      * Convert JSON Schema in JSON format to actual JSON Schema instances.
      */
     private Map<String, JsonSchema> makeSchemas(Map<String, JsonNode> originalDefinitions) {
-        Map<String, JsonSchema> definitions = new HashMap<>();
+        Map<String, JsonSchema> definitions = new ConcurrentHashMap<>();
         for (var type : originalDefinitions.keySet()) {
             var definition = factory.getSchema(originalDefinitions.get(type));
             definitions.put(type, definition);
@@ -0,0 +1,126 @@
+package de.gtarc.opaca.platform;
+
+import de.gtarc.opaca.model.AgentContainer;
+import de.gtarc.opaca.model.AgentDescription;
+import de.gtarc.opaca.model.RuntimePlatform;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index mapping action names, agent IDs and stream names to the local Agent Containers and
+ * connected Runtime Platforms providing them, so that requests can be routed without checking
+ * each and every agent and action. The index is updated whenever the containers and platforms
+ * change, and only yields "candidates"; the exact match (e.g. on argument types) still has to
+ * be checked for those.
+ */
+public class CapabilityIndex {
+
+    /** local container IDs by agent ID, action name and stream name */
+    private final Map<String, Set<String>> containersByAgent = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> containersByAction = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> containersByStream = new ConcurrentHashMap<>();
+
+    /** connected platform URLs by agent ID, action name and stream name */
+    private final Map<String, Set<String>> platformsByAgent = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> platformsByAction = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> platformsByStream = new ConcurrentHashMap<>();
+
+    /*
+     * UPDATING THE INDEX
+     */
+
+    public synchronized void addContainer(AgentContainer container) {
+        removeContainer(container.getContainerId());
+        addAll(container.getContainerId(), List.of(container), containersByAgent, containersByAction, containersByStream);
+    }
+
+    public synchronized void removeContainer(String containerId) {
+        removeAll(containerId, containersByAgent, containersByAction, containersByStream);
+    }
+
+    public synchronized void addPlatform(String platformUrl, RuntimePlatform platform) {
+        removePlatform(platformUrl);
+        addAll(platformUrl, platform.getContainers(), platformsByAgent, platformsByAction, platformsByStream);
+    }
+
+    public synchronized void removePlatform(String platformUrl) {
+        removeAll(platformUrl, platformsByAgent, platformsByAction, platformsByStream);
+    }
+
+    public synchronized void clear() {
+        List.of(containersByAgent, containersByAction, containersByStream,
+                platformsByAgent, platformsByAction, platformsByStream).forEach(Map::clear);
+    }
+
+    /*
+     * LOOKUP
+     */
+
+    /**
+     * Get IDs of local containers that may provide the given agent, action and/or stream,
+     * or null if neither is given, i.e. if all containers are candidates (e.g. for broadcast).
+     */
+    public Set<String> findContainers(String agentId, String action, String stream) {
+        return find(agentId, action, stream, containersByAgent, containersByAction, containersByStream);
+    }
+
+    /**
+     * Get URLs of connected platforms that may provide the given agent, action and/or stream,
+     * or null if neither is given, i.e. if all platforms are candidates (e.g. for broadcast).
+     */
+    public Set<String> findPlatforms(String agentId, String action, String stream) {
+        return find(agentId, action, stream, platformsByAgent, platformsByAction, platformsByStream);
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    private Set<String> find(String agentId, String action, String stream,
+                             Map<String, Set<String>> byAgent, Map<String, Set<String>> byAction, Map<String, Set<String>> byStream) {
+        // agent IDs are the most specific, so use those first, if given
+        if (agentId != null) return byAgent.getOrDefault(agentId, Set.of());
+        if (action != null) return byAction.getOrDefault(action, Set.of());
+        if (stream != null) return byStream.getOrDefault(stream, Set.of());
+        return null;
+    }
+
+    private void addAll(String key, List<AgentContainer> containers,
+                        Map<String, Set<String>> byAgent, Map<String, Set<String>> byAction, Map<String, Set<String>> byStream) {
+        for (AgentContainer container : containers) {
+            for (AgentDescription agent : container.getAgents()) {
+                add(byAgent, agent.getAgentId(), key);
+                agent.getActions().forEach(a -> add(byAction, a.getName(), key));
+                agent.getStreams().forEach(s -> add(byStream, s.getName(), key));
+            }
+        }
+    }
+
+    @SafeVarargs
+    private void removeAll(String key, Map<String, Set<String>>... indices) {
+        for (Map<String, Set<String>> index : indices) {
+            index.replaceAll((name, keys) -> keys.contains(key) ? without(keys, key) : keys);
+            index.values().removeIf(Set::isEmpty);
+        }
+    }
+
+    /**
+     * Sets in the index are never modified, but replaced, so lookups can safely iterate them
+     * while the index is being updated. Insertion order is preserved for stable routing.
+     */
+    private void add(Map<String, Set<String>> index, String name, String key) {
+        index.compute(name, (n, keys) -> {
+            var copy = keys == null ? new LinkedHashSet<String>() : new LinkedHashSet<>(keys);
+            copy.add(key);
+            return Collections.unmodifiableSet(copy);
+        });
+    }
+
+    private Set<String> without(Set<String> keys, String key) {
+        var copy = new LinkedHashSet<>(keys);
+        copy.remove(key);
+        return Collections.unmodifiableSet(copy);
+    }
+
+}
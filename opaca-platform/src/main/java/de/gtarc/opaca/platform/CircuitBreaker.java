@@ -0,0 +1,225 @@
+package de.gtarc.opaca.platform;
+
+import de.gtarc.opaca.util.ApiProxy;
+import de.gtarc.opaca.util.RestHelper;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of failed requests to each container and connected platform (by base URL) and stops sending
+ * requests to those that failed repeatedly, i.e. the "circuit" is opened. After some time, a single trial
+ * request is let through again ("half-open"); if that succeeds, the circuit is closed, otherwise it is opened
+ * again. Only failures indicating that the target itself is not available are counted, e.g. connection errors
+ * and timeouts, but not errors of the actions themselves. Requests cancelled by the caller, e.g. hedged requests
+ * that lost the race or broadcasts that took too long, neither count as failure nor as success.
+ */
+@Log
+public class CircuitBreaker {
+
+    public enum State {
+        /** requests are sent as usual */
+        CLOSED,
+        /** requests are rejected without trying */
+        OPEN,
+        /** a single trial request is let through to see whether the target is available again */
+        HALF_OPEN
+    }
+
+    /**
+     * Current state and statistics for a single target.
+     */
+    public static class Circuit {
+
+        @Getter private final String baseUrl;
+        @Getter private State state = State.CLOSED;
+        @Getter private int consecutiveFailures = 0;
+        @Getter private long transitions = 0;
+        @Getter private long lastTransition = 0;
+        @Getter private long rejected = 0;
+
+        private long openedAt = 0;
+        private boolean trialInProgress = false;
+
+        private Circuit(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        private void transition(State newState) {
+            log.info(String.format("Circuit for %s: %s -> %s", baseUrl, state, newState));
+            state = newState;
+            transitions++;
+            lastTransition = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Thrown (or rather, returned as failure) if a request is rejected because of an open circuit.
+     */
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException(String baseUrl) {
+            super("Not sending request to " + baseUrl + ", as it is currently not available (circuit open)");
+        }
+    }
+
+    /** status codes of errors returned by the target that indicate that it is not available */
+    private static final Set<Integer> UNAVAILABLE_STATUS_CODES = Set.of(503, 504);
+
+    /** number of consecutive failures after which the circuit is opened; 0 or less to disable */
+    private final int failureThreshold;
+
+    /** time in milliseconds after which to let through a trial request for an open circuit */
+    private final long openMillis;
+
+    /** circuits by target base URL */
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public boolean isEnabled() {
+        return failureThreshold > 0;
+    }
+
+    /**
+     * Check whether a request to the target would currently be let through, without changing its state.
+     */
+    public boolean isAvailable(String baseUrl) {
+        var circuit = circuits.get(baseUrl);
+        if (circuit == null) return true;
+        synchronized (circuit) {
+            switch (circuit.state) {
+                case OPEN: return System.currentTimeMillis() - circuit.openedAt >= openMillis;
+                case HALF_OPEN: return ! circuit.trialInProgress;
+                default: return true;
+            }
+        }
+    }
+
+    /**
+     * Make the call to the given client, unless its circuit is open, and update its state with the result.
+     */
+    public <T> CompletableFuture<T> call(ApiProxy client, LoadBalancer.Call<T> call) {
+        if (! isEnabled()) return call.apply(client);
+        var circuit = circuits.computeIfAbsent(client.baseUrl, Circuit::new);
+        if (! tryAcquire(circuit)) {
+            return CompletableFuture.failedFuture(new CircuitOpenException(client.baseUrl));
+        }
+        CompletableFuture<T> future;
+        try {
+            future = call.apply(client);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        // not returning the future of whenComplete, as that would not be called if it was cancelled itself
+        future.whenComplete((result, error) -> {
+            if (error != null && isCancellation(error)) {
+                onCancelled(circuit);
+            } else if (error != null && isTargetFailure(error)) {
+                onFailure(circuit);
+            } else {
+                onSuccess(circuit);
+            }
+        });
+        return future;
+    }
+
+    public Map<String, Circuit> getStats() {
+        return Collections.unmodifiableMap(circuits);
+    }
+
+    /**
+     * Remove circuit for a target, e.g. after the container was removed.
+     */
+    public void remove(String baseUrl) {
+        circuits.remove(baseUrl);
+    }
+
+    public void clear() {
+        circuits.clear();
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    private boolean tryAcquire(Circuit circuit) {
+        synchronized (circuit) {
+            switch (circuit.state) {
+                case OPEN:
+                    if (System.currentTimeMillis() - circuit.openedAt < openMillis) break;
+                    circuit.transition(State.HALF_OPEN);
+                    circuit.trialInProgress = true;
+                    return true;
+                case HALF_OPEN:
+                    if (circuit.trialInProgress) break;
+                    circuit.trialInProgress = true;
+                    return true;
+                default:
+                    return true;
+            }
+            circuit.rejected++;
+            return false;
+        }
+    }
+
+    private void onSuccess(Circuit circuit) {
+        synchronized (circuit) {
+            circuit.consecutiveFailures = 0;
+            circuit.trialInProgress = false;
+            if (circuit.state != State.CLOSED) {
+                circuit.transition(State.CLOSED);
+            }
+        }
+    }
+
+    private void onFailure(Circuit circuit) {
+        synchronized (circuit) {
+            circuit.consecutiveFailures++;
+            circuit.trialInProgress = false;
+            if (circuit.state == State.HALF_OPEN || (circuit.state == State.CLOSED && circuit.consecutiveFailures >= failureThreshold)) {
+                circuit.transition(State.OPEN);
+                circuit.openedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Release the trial slot of a half-open circuit, if the trial was cancelled, without changing the state,
+     * so that the next request is let through as trial instead.
+     */
+    private void onCancelled(Circuit circuit) {
+        synchronized (circuit) {
+            circuit.trialInProgress = false;
+        }
+    }
+
+    private static boolean isCancellation(Throwable error) {
+        var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof CancellationException;
+    }
+
+    /**
+     * Whether the error indicates that the target is not available, as opposed to e.g. an error in the
+     * action, which is returned by the target and thus shows that it is available.
+     */
+    private static boolean isTargetFailure(Throwable error) {
+        var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RestHelper.RequestException) {
+            var nested = ((RestHelper.RequestException) cause).getNestedError();
+            return nested != null && UNAVAILABLE_STATUS_CODES.contains(nested.getStatusCode());
+        }
+        return cause instanceof IOException;
+    }
+
+}
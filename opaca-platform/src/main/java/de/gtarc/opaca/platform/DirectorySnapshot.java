@@ -0,0 +1,61 @@
+package de.gtarc.opaca.platform;
+
+import de.gtarc.opaca.model.AgentContainer;
+import de.gtarc.opaca.model.AgentDescription;
+import de.gtarc.opaca.model.RuntimePlatform;
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of the containers, agents and connections of this platform, as returned by the
+ * different info routes. A new snapshot is created and swapped in whenever those change, so that
+ * read requests do not have to iterate or copy the running containers each time.
+ */
+@Getter
+public class DirectorySnapshot {
+
+    /** incremented with each new snapshot */
+    private final long version;
+
+    /** running containers by container ID, and as list */
+    private final Map<String, AgentContainer> containersById;
+    private final List<AgentContainer> containers;
+
+    /** agents of all running containers by agent ID, and as list */
+    private final Map<String, AgentDescription> agentsById;
+    private final List<AgentDescription> agents;
+
+    /** URLs of connected platforms */
+    private final List<String> connections;
+
+    /** info on this platform, including all of the above */
+    private final RuntimePlatform platformInfo;
+
+    public DirectorySnapshot(long version, String baseUrl, Map<String, AgentContainer> runningContainers, Collection<String> connectedPlatforms) {
+        this.version = version;
+        this.containersById = Map.copyOf(runningContainers);
+        this.containers = List.copyOf(runningContainers.values());
+
+        // keep first agent in case of duplicate IDs in different containers
+        var agentsById = new HashMap<String, AgentDescription>();
+        var agents = new ArrayList<AgentDescription>();
+        for (AgentContainer container : containers) {
+            for (AgentDescription agent : container.getAgents()) {
+                agentsById.putIfAbsent(agent.getAgentId(), agent);
+                agents.add(agent);
+            }
+        }
+        this.agentsById = Map.copyOf(agentsById);
+        this.agents = List.copyOf(agents);
+
+        this.connections = List.copyOf(connectedPlatforms);
+        this.platformInfo = new RuntimePlatform(
+                baseUrl,
+                containers,
+                List.of(), // TODO "provides" of platform? read from config? issue #42
+                connections
+        );
+    }
+
+}
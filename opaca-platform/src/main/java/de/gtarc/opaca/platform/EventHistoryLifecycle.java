@@ -0,0 +1,53 @@
+package de.gtarc.opaca.platform;
+
+import de.gtarc.opaca.util.EventHistory;
+import de.gtarc.opaca.util.EventJournal;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.java.Log;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Sets up the Event History according to the platform config when the platform is started, including the
+ * Event Journal, if a directory is configured, and closes the journal when the platform is stopped.
+ */
+@Component
+@Log
+public class EventHistoryLifecycle {
+
+    /** segments are memory-mapped as a whole, so their size has to fit in an int */
+    private static final int MAX_SEGMENT_MB = Integer.MAX_VALUE / (1024 * 1024);
+
+    @Autowired
+    private PlatformConfig config;
+
+    @PostConstruct
+    private void initialize() throws IOException {
+        EventHistory.maxSize = config.eventHistorySize;
+        if (config.eventJournalDirectory != null && ! config.eventJournalDirectory.isBlank()) {
+            if (config.eventJournalSegmentMb < 1 || config.eventJournalSegmentMb > MAX_SEGMENT_MB) {
+                throw new IllegalArgumentException(String.format("Event journal segment size must be between 1 and %d MB, but is %d MB",
+                        MAX_SEGMENT_MB, config.eventJournalSegmentMb));
+            }
+            EventHistory.getInstance().setJournal(new EventJournal(Path.of(config.eventJournalDirectory),
+                    (int) (config.eventJournalSegmentMb * 1024L * 1024L),
+                    config.eventJournalSegmentHours * 3600 * 1000,
+                    config.eventJournalRetentionHours * 3600 * 1000,
+                    config.eventJournalMaxSizeMb * 1024L * 1024L));
+        }
+    }
+
+    @PreDestroy
+    private void close() throws IOException {
+        var journal = EventHistory.getInstance().getJournal();
+        if (journal != null) {
+            EventHistory.getInstance().setJournal(null);
+            journal.close();
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package de.gtarc.opaca.platform;
+
+import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.util.EventHistory;
+import lombok.extern.java.Log;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Pushes new events from the Event History to subscribers as Server-Sent Events, optionally filtered by type
+ * and route. Each subscriber has its own bounded buffer, so a slow client does not hold up adding events or
+ * sending them to other clients; if the buffer is full, the oldest events are dropped. Clients reconnecting
+ * with the ID of the last event they received first get the events they missed, as far as those are still
+ * in the history or journal; if that event is not known (anymore), nothing is replayed.
+ */
+@Log
+public class EventStreams {
+
+    /** maximum number of events buffered for each subscriber */
+    private final int bufferSize;
+
+    private final AtomicLong subscribers = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        var thread = new Thread(runnable, "event-stream");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public EventStreams(int bufferSize) {
+        this.bufferSize = Math.max(1, bufferSize);
+    }
+
+    /**
+     * Create a new subscription, sending all events matching the given type and route (if not null) to the
+     * returned emitter until the client disconnects, starting after the event with the given ID, if any.
+     */
+    public SseEmitter subscribe(String lastEventId, Event.EventType type, String route) {
+        var emitter = new SseEmitter(0L);
+        var resume = lastEventId != null && ! lastEventId.isBlank();
+        var subscriber = new Subscriber(emitter, type, route, resume);
+        var history = EventHistory.getInstance();
+
+        // register first, then get missed events, so none are lost in between; live events are held back
+        // until the missed events have been replayed
+        history.addListener(subscriber);
+        subscribers.incrementAndGet();
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+        if (resume) {
+            subscriber.replay(history.getEventsAfterKnown(lastEventId, type, route));
+        }
+        return emitter;
+    }
+
+    public long getSubscribers() {
+        return subscribers.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /*
+     * HELPER CLASSES
+     */
+
+    private class Subscriber implements Consumer<Event> {
+
+        private final SseEmitter emitter;
+        private final Event.EventType type;
+        private final String route;
+
+        private final Deque<Event> buffer = new ArrayDeque<>();
+        private final Deque<Event> pending = new ArrayDeque<>();
+        private boolean replaying;
+        private boolean sending = false;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Subscriber(SseEmitter emitter, Event.EventType type, String route, boolean replaying) {
+            this.emitter = emitter;
+            this.type = type;
+            this.route = route;
+            this.replaying = replaying;
+        }
+
+        /**
+         * Called by the Event History for each new event; only adds it to the buffer and leaves sending it to
+         * another thread, if not already sending, or holds it back while missed events are still being replayed.
+         */
+        @Override
+        public void accept(Event event) {
+            if ((type != null && type != event.getEventType()) || (route != null && ! route.equals(event.getRoute()))) {
+                return;
+            }
+            synchronized (this) {
+                if (replaying) {
+                    pending.addLast(event);
+                    trim(pending);
+                } else {
+                    buffer.addLast(event);
+                    trim(buffer);
+                    startSending();
+                }
+            }
+        }
+
+        /**
+         * Send the missed events, followed by the live events held back since subscribing, skipping those that
+         * have already been replayed, then continue with live events as usual.
+         */
+        synchronized void replay(List<Event> events) {
+            Set<String> replayed = new HashSet<>();
+            for (var event : events) {
+                replayed.add(event.getId());
+                buffer.addLast(event);
+            }
+            for (var event : pending) {
+                if (! replayed.contains(event.getId())) {
+                    buffer.addLast(event);
+                }
+            }
+            pending.clear();
+            replaying = false;
+            trim(buffer);
+            startSending();
+        }
+
+        private void trim(Deque<Event> events) {
+            while (events.size() > bufferSize) {
+                events.removeFirst();
+                dropped.incrementAndGet();
+            }
+        }
+
+        private void startSending() {
+            if (! sending && ! closed.get()) {
+                sending = true;
+                executor.execute(this::send);
+            }
+        }
+
+        private void send() {
+            while (true) {
+                Event event;
+                synchronized (this) {
+                    event = buffer.pollFirst();
+                    if (event == null || closed.get()) {
+                        sending = false;
+                        return;
+                    }
+                }
+                try {
+                    emitter.send(SseEmitter.event()
+                            .id(event.getId())
+                            .name(String.valueOf(event.getEventType()))
+                            .data(event));
+                } catch (IOException | IllegalStateException e) {
+                    log.fine(() -> "Event stream closed: " + e.getMessage());
+                    close();
+                    emitter.completeWithError(e);
+                    return;
+                }
+            }
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                EventHistory.getInstance().removeListener(this);
+                subscribers.decrementAndGet();
+                synchronized (this) {
+                    buffer.clear();
+                    pending.clear();
+                    sending = false;
+                }
+            }
+        }
+    }
+
+}
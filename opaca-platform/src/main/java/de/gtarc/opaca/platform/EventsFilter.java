@@ -1,11 +1,13 @@
 package de.gtarc.opaca.platform;
 
 import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.util.CallContext;
 import de.gtarc.opaca.util.EventHistory;
 import jakarta.servlet.*;
 import jakarta.servlet.http.*;
 import lombok.NoArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.HandlerMapping;
 
 import java.io.IOException;
 import java.util.Map;
@@ -13,7 +15,9 @@ import java.util.Set;
 
 /**
  * Filter for pre- and postprocessing requests. Can be used for generating Events for the
- * History, for uniform logging, or for outright rejecting certain requests.
+ * History, for uniform logging, or for outright rejecting certain requests. Also records the
+ * duration of all requests in the RequestMetrics; for asynchronous requests, e.g. streams, once the
+ * response has been completed.
  *
  * TODO check how this interacts with Auth, and if it's called before or after the Auth Filter
  */
@@ -25,21 +29,72 @@ public class EventsFilter implements Filter {
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (! (request instanceof HttpServletRequest) || ! (response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        var httpRequest = (HttpServletRequest) request;
+        var httpResponse = (HttpServletResponse) response;
+        var start = System.nanoTime();
+        var endRequest = RequestMetrics.getInstance().startRequest(httpRequest.getMethod(), httpRequest.getRequestURI());
+        var failed = false;
+        try {
+            handleEvents(httpRequest, httpResponse, chain);
+        } catch (IOException | ServletException | RuntimeException e) {
+            failed = true;
+            throw e;
+        } finally {
+            if (! httpRequest.isAsyncStarted()) {
+                endRequest.run();
+                recordMetrics(httpRequest, httpResponse, failed, (System.nanoTime() - start) / 1000);
+            }
+        }
+        if (httpRequest.isAsyncStarted()) {
+            // e.g. streams: record once the response has been completed, which is also called after errors
+            httpRequest.getAsyncContext().addListener(new AsyncListener() {
+                private volatile boolean asyncFailed = false;
+
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    endRequest.run();
+                    recordMetrics(httpRequest, httpResponse, asyncFailed, (System.nanoTime() - start) / 1000);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    asyncFailed = true;
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    asyncFailed = true;
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        }
+    }
 
-        if (request instanceof HttpServletRequest &&
-                response instanceof HttpServletResponse &&
-                requestShouldCreateEvent((HttpServletRequest) request)) {
-            HttpServletRequest httpRequest = (HttpServletRequest) request;
-            HttpServletResponse httpResponse = (HttpServletResponse) response;
+    private void handleEvents(HttpServletRequest httpRequest, HttpServletResponse httpResponse, FilterChain chain) throws IOException, ServletException {
 
+        if (requestShouldCreateEvent(httpRequest)) {
             // create call event
             String route = String.format("%s %s", httpRequest.getMethod(), httpRequest.getRequestURI());
             String sender = httpRequest.getHeader(Event.HEADER_SENDER_ID);
-            Event callEvent = createCallEvent(route, sender);
+            String correlationId = httpRequest.getHeader(Event.HEADER_CORRELATION_ID);
+            Event callEvent = createCallEvent(route, sender, correlationId);
             addEvent(callEvent);
+            httpResponse.setHeader(Event.HEADER_CORRELATION_ID, callEvent.getCorrelationId());
 
-            // process the request
-            chain.doFilter(request, response);
+            // process the request, keeping the call event for relating forward events to it
+            CallContext.setCall(callEvent);
+            try {
+                chain.doFilter(httpRequest, httpResponse);
+            } finally {
+                CallContext.clear();
+            }
 
             // create result or error event
             if (httpResponse.getStatus() >= 200 & httpResponse.getStatus() < 300 ) {
@@ -49,7 +104,7 @@ public class EventsFilter implements Filter {
             }
         } else {
             // just process the request
-            chain.doFilter(request, response);
+            chain.doFilter(httpRequest, httpResponse);
         }
     }
 
@@ -64,20 +119,43 @@ public class EventsFilter implements Filter {
                 .anyMatch(r -> request.getRequestURI().startsWith(r));
     }
 
+    /**
+     * Record duration of the request by route template, status and the container and action, if any; the
+     * route template and path variables are only known after the request has been mapped to a handler.
+     */
+    @SuppressWarnings("unchecked")
+    private void recordMetrics(HttpServletRequest request, HttpServletResponse response, boolean failed, long micros) {
+        var route = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        var variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        var container = request.getParameter("containerId");
+        if (container == null && variables != null) {
+            container = variables.get("containerId");
+        }
+        var status = failed && response.getStatus() < 400 ? 500 : response.getStatus();
+        RequestMetrics.getInstance().record(request.getMethod(), route == null ? "unmatched" : route, status,
+                container, variables != null ? variables.get("action") : null, micros);
+    }
+
     private void addEvent(Event event) {
         EventHistory.getInstance().addEvent(event);
     }
 
-    private Event createCallEvent(String route, String sender) {
-        return new Event(Event.EventType.CALL, route, sender, null, null, null);
+    /**
+     * Create call event, with the given correlation ID, if any and valid, or starting a new one with the
+     * event's own ID.
+     */
+    private Event createCallEvent(String route, String sender, String correlationId) {
+        var event = new Event(Event.EventType.CALL, route, sender, null, null, null);
+        event.setCorrelationId(Event.isValidCorrelationId(correlationId) ? correlationId : event.getId());
+        return event;
     }
 
     private Event createResultEvent(Event related) {
-        return new Event(Event.EventType.SUCCESS, null, null, null, null, related.getId());
+        return new Event(Event.EventType.SUCCESS, null, null, null, null, related.getId(), related.getCorrelationId());
     }
 
     private Event createErrorEvent(Event related, int status) {
-        return new Event(Event.EventType.ERROR, null, null, null, status, related.getId());
+        return new Event(Event.EventType.ERROR, null, null, null, status, related.getId(), related.getCorrelationId());
     }
 
 }
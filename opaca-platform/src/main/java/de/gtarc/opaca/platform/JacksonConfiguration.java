@@ -1,14 +1,19 @@
 package de.gtarc.opaca.platform;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gtarc.opaca.util.DataFormat;
 import de.gtarc.opaca.util.RestHelper;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 
 /**
  * Jackson Configuration for e.g. resolving Dates and Times, or variants on nested objects.
+ * Besides JSON, request and response bodies can also be in the binary CBOR and Smile formats,
+ * if requested by the client with the respective Content-Type and Accept headers.
  */
 @Configuration
 public class JacksonConfiguration {
@@ -18,4 +23,14 @@ public class JacksonConfiguration {
     public ObjectMapper objectMapper2(Jackson2ObjectMapperBuilder builder) {
         return RestHelper.mapper;
     }
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter() {
+        return new MappingJackson2CborHttpMessageConverter(DataFormat.CBOR.getMapper());
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter() {
+        return new MappingJackson2SmileHttpMessageConverter(DataFormat.SMILE.getMapper());
+    }
 }
@@ -0,0 +1,129 @@
+package de.gtarc.opaca.platform;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in microseconds, with a relative error of less than 1% over the entire range, in the
+ * style of HdrHistogram: values are counted in buckets for each power of two, each of those split into the same
+ * number of linear sub-buckets. Recording a value only increments a counter, without locking or allocating.
+ */
+public class LatencyHistogram {
+
+    /** number of bits for the sub-buckets; 2^7 = 128 sub-buckets, of which the upper half are used per power of two */
+    private static final int SUB_BUCKET_BITS = 7;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+    /** largest value that can be recorded, about 19 hours; larger values are counted as this */
+    public static final long MAX_VALUE = (1L << 36) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(getIndex(MAX_VALUE) + 1);
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long micros) {
+        var value = Math.min(Math.max(0, micros), MAX_VALUE);
+        counts.incrementAndGet(getIndex(value));
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Get a consistent copy of the counts, e.g. for getting multiple percentiles.
+     */
+    public Snapshot getSnapshot() {
+        var copy = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.sum(), max.get());
+    }
+
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /** sum of all values in microseconds */
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Get the value at the given percentile (between 0 and 1), i.e. the middle of the sub-bucket with the
+         * value at that rank, or 0 if there are no values.
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) return 0;
+            var rank = Math.max(1, (long) Math.ceil(percentile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(getMedianEquivalent(i), max);
+            }
+            return max;
+        }
+
+        /**
+         * Get the number of values that are less than or equal to the given value (within the precision of
+         * the histogram), e.g. for cumulative buckets.
+         */
+        public long getCountAtOrBelow(long micros) {
+            var last = getIndex(Math.min(Math.max(0, micros), MAX_VALUE));
+            long result = 0;
+            for (int i = 0; i <= last; i++) {
+                result += counts[i];
+            }
+            return result;
+        }
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        var exponent = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return exponent * SUB_BUCKET_HALF + (int) (value >>> exponent);
+    }
+
+    private static long getMedianEquivalent(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        var exponent = index / SUB_BUCKET_HALF - 1;
+        var subBucket = index - exponent * SUB_BUCKET_HALF;
+        return ((long) subBucket << exponent) + (1L << (exponent - 1));
+    }
+
+}
@@ -0,0 +1,187 @@
+package de.gtarc.opaca.platform;
+
+import de.gtarc.opaca.util.ApiProxy;
+import lombok.Getter;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Decides in which order the different containers and platforms providing the same action should be
+ * tried, so that requests are distributed among them instead of always going to the first one. For this,
+ * the number of outstanding requests and the average latency of each target (by base URL) are tracked.
+ * The other candidates are still tried in turn if the first one fails.
+ */
+public class LoadBalancer {
+
+    public enum Strategy {
+        /** always try the candidates in the order they were found, local containers first */
+        FIRST,
+        /** rotate the candidates with each request */
+        ROUND_ROBIN,
+        /** prefer the candidate with the fewest outstanding requests */
+        LEAST_OUTSTANDING,
+        /** pick two random candidates and prefer the one with fewer outstanding requests */
+        POWER_OF_TWO,
+        /** prefer the candidate with the lowest average latency, weighted by outstanding requests */
+        EWMA
+    }
+
+    /**
+     * Live statistics for a single target, i.e. a container or connected platform.
+     */
+    @Getter
+    public static class TargetStats {
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        /** exponentially weighted moving average of latency in milliseconds; negative if unknown */
+        private volatile double latency = -1;
+
+        private synchronized void recordLatency(double millis) {
+            latency = latency < 0 ? millis : EWMA_WEIGHT * millis + (1 - EWMA_WEIGHT) * latency;
+        }
+    }
+
+    /**
+     * An asynchronous call to be made to a target, e.g. invoking an action.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        CompletableFuture<T> apply(ApiProxy client);
+    }
+
+    /** weight of the latest sample in the average latency */
+    private static final double EWMA_WEIGHT = 0.3;
+
+    /** default strategy, if none is given for the request */
+    @Getter
+    private final Strategy defaultStrategy;
+
+    /** statistics by target base URL */
+    private final Map<String, TargetStats> stats = new ConcurrentHashMap<>();
+
+    /** round-robin counters by key, e.g. action name */
+    private final Map<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+
+    public LoadBalancer(Strategy defaultStrategy) {
+        this.defaultStrategy = defaultStrategy == null ? Strategy.FIRST : defaultStrategy;
+    }
+
+    /**
+     * Get the given candidates in the order in which they should be tried according to the strategy.
+     *
+     * @param key the key for rotating the candidates, e.g. the action name
+     * @param candidates the clients providing the requested action, as returned by getClients
+     * @param strategy the strategy to use, or null for the default strategy
+     */
+    public List<ApiProxy> order(String key, List<ApiProxy> candidates, Strategy strategy) {
+        if (strategy == null) strategy = defaultStrategy;
+        if (candidates.size() < 2 || strategy == Strategy.FIRST) return candidates;
+
+        // rotate first, so that equal candidates are still used in turn after sorting
+        int offset = Math.floorMod(counters.computeIfAbsent(key, k -> new AtomicInteger()).getAndIncrement(), candidates.size());
+        List<ApiProxy> ordered = new ArrayList<>(candidates.size());
+        ordered.addAll(candidates.subList(offset, candidates.size()));
+        ordered.addAll(candidates.subList(0, offset));
+
+        switch (strategy) {
+            case LEAST_OUTSTANDING:
+                sortBy(ordered, c -> getStats(c).outstanding.get());
+                break;
+            case POWER_OF_TWO:
+                var random = ThreadLocalRandom.current();
+                int i = random.nextInt(ordered.size());
+                int j = (i + 1 + random.nextInt(ordered.size() - 1)) % ordered.size();
+                var byLoad = Comparator.<ApiProxy>comparingInt(c -> getStats(c).outstanding.get()).thenComparingDouble(this::score);
+                var best = byLoad.compare(ordered.get(i), ordered.get(j)) <= 0 ? ordered.get(i) : ordered.get(j);
+                ordered.remove(best);
+                ordered.add(0, best);
+                break;
+            case EWMA:
+                sortBy(ordered, this::score);
+                break;
+            default:
+                break;
+        }
+        return ordered;
+    }
+
+    /**
+     * Make the call to the given client and update its statistics once the call has completed.
+     */
+    public <T> CompletableFuture<T> call(ApiProxy client, Call<T> call) {
+        var targetStats = getStats(client);
+        targetStats.outstanding.incrementAndGet();
+        targetStats.requests.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.apply(client);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        // not returning the future of whenComplete, as that would not be called if it was cancelled itself
+        future.whenComplete((result, error) -> {
+            if (error == null) {
+                targetStats.recordLatency((System.nanoTime() - start) / 1e6);
+            } else if (! (error instanceof CancellationException)) {
+                targetStats.failures.incrementAndGet();
+            }
+            targetStats.outstanding.decrementAndGet();
+        });
+        return future;
+    }
+
+    public Map<String, TargetStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Remove statistics for a target, e.g. after the container was removed.
+     */
+    public void remove(String baseUrl) {
+        stats.remove(baseUrl);
+    }
+
+    public void clear() {
+        stats.clear();
+        counters.clear();
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    private TargetStats getStats(ApiProxy client) {
+        return stats.computeIfAbsent(client.baseUrl, url -> new TargetStats());
+    }
+
+    /**
+     * Sort by the current values of the given function; those are taken once before sorting, as they
+     * may change concurrently during sorting, e.g. number of outstanding requests.
+     */
+    private void sortBy(List<ApiProxy> clients, ToDoubleFunction<ApiProxy> function) {
+        Map<ApiProxy, Double> values = new IdentityHashMap<>();
+        clients.forEach(c -> values.put(c, function.applyAsDouble(c)));
+        clients.sort(Comparator.comparingDouble(values::get));
+    }
+
+    /**
+     * Expected cost of sending another request to the target; targets without known latency
+     * are preferred, so each target is tried at least once.
+     */
+    private double score(ApiProxy client) {
+        var targetStats = getStats(client);
+        return Math.max(targetStats.latency, 0) * (targetStats.outstanding.get() + 1);
+    }
+
+}
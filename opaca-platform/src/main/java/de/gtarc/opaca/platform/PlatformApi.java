@@ -0,0 +1,51 @@
+package de.gtarc.opaca.platform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.gtarc.opaca.api.RuntimePlatformApi;
+import de.gtarc.opaca.model.DeliveryReport;
+import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.model.Message;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Additional functions of this Runtime Platform implementation, used by the REST controller, beyond the
+ * common RuntimePlatformApi, e.g. depending on Spring or on platform-specific options.
+ */
+public interface PlatformApi extends RuntimePlatformApi {
+
+    /**
+     * Get statistics on the platform's caches etc., by topic.
+     *
+     * REST Route: GET /stats
+     */
+    Map<String, ?> getStats();
+
+    /**
+     * Subscribe to new events in the history, optionally filtered, starting after the given event, if any.
+     *
+     * REST Route: GET /history/stream
+     */
+    SseEmitter subscribeHistory(String lastEventId, Event.EventType type, String route);
+
+    /**
+     * Broadcast message, waiting for the outcome for each container and platform up to the broadcast
+     * timeout, or returning immediately if async is set.
+     *
+     * REST Route: POST /broadcast/{channel}
+     */
+    DeliveryReport broadcast(String channel, Message message, String containerId, boolean forward, boolean async);
+
+    /**
+     * Invoke action, trying the matching containers and platforms in the order given by the load balancing
+     * strategy, or the platform's default strategy if null.
+     *
+     * REST Route: POST /invoke/{action}/{agentId}
+     */
+    JsonNode invoke(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward,
+                    LoadBalancer.Strategy strategy) throws IOException, NoSuchElementException;
+
+}
@@ -4,6 +4,9 @@ import com.google.common.base.Strings;
 import de.gtarc.opaca.api.AgentContainerApi;
 import de.gtarc.opaca.model.AgentContainerImage;
 import de.gtarc.opaca.model.PostAgentContainer;
+import de.gtarc.opaca.util.AccessLog;
+import de.gtarc.opaca.util.DataFormat;
+import de.gtarc.opaca.util.RestHelper;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.ToString;
@@ -57,6 +60,75 @@ public class PlatformConfig {
     @Value("${event_history_size}")
     public int eventHistorySize;
 
+    @Value("${event_stream_buffer}")
+    public int eventStreamBuffer;
+
+    @Value("${event_journal_directory}")
+    public String eventJournalDirectory;
+
+    @Value("${event_journal_segment_mb}")
+    public int eventJournalSegmentMb;
+
+    @Value("${event_journal_segment_hours}")
+    public long eventJournalSegmentHours;
+
+    @Value("${event_journal_retention_hours}")
+    public long eventJournalRetentionHours;
+
+    @Value("${event_journal_max_size_mb}")
+    public long eventJournalMaxSizeMb;
+
+    @Value("${schema_cache_directory}")
+    public String schemaCacheDirectory;
+
+    @Value("${load_balancing}")
+    public LoadBalancer.Strategy loadBalancing;
+
+    @Value("${hedging_delay_ms}")
+    public long hedgingDelayMs;
+
+    @Value("${hedging_budget_percent}")
+    public double hedgingBudgetPercent;
+
+    @Value("${broadcast_timeout_ms}")
+    public long broadcastTimeoutMs;
+
+    @Value("${coalesce_invokes}")
+    public boolean coalesceInvokes;
+
+    @Value("${http_max_connections_per_host}")
+    public int httpMaxConnectionsPerHost;
+
+    @Value("${http_connection_wait_timeout_ms}")
+    public long httpConnectionWaitTimeoutMs;
+
+    @Value("${http_connect_timeout_ms}")
+    public long httpConnectTimeoutMs;
+
+    @Value("${http_request_timeout_ms}")
+    public long httpRequestTimeoutMs;
+
+    @Value("${http_data_format}")
+    public DataFormat httpDataFormat;
+
+    @Value("${server.compression.enabled}")
+    public boolean httpCompression;
+
+    @Value("${server.compression.min-response-size}")
+    public int httpCompressionMinSize;
+
+    @Value("${access_log_sample_rate}")
+    public double accessLogSampleRate;
+
+    @Value("${access_log_max_payload}")
+    public int accessLogMaxPayload;
+
+    @Value("${circuit_breaker_failures}")
+    public int circuitBreakerFailures;
+
+    @Value("${circuit_breaker_open_ms}")
+    public long circuitBreakerOpenMs;
+
     // SECURITY & AUTHENTICATION
 
     @Value("${security.enableAuth}")
@@ -118,6 +190,17 @@ public class PlatformConfig {
     @PostConstruct
     private void initialize() {
         log.info("Started with Config: " + this);
+        // set here, before the first requests to containers or other platforms are made
+        RestHelper.configure(RestHelper.Settings.builder()
+                .maxConnectionsPerHost(httpMaxConnectionsPerHost)
+                .connectionWaitTimeoutMs(httpConnectionWaitTimeoutMs)
+                .connectTimeoutMs(httpConnectTimeoutMs)
+                .requestTimeoutMs(httpRequestTimeoutMs)
+                .preferredFormat(httpDataFormat)
+                .acceptCompressed(httpCompression)
+                .build());
+        AccessLog.sampleRate = accessLogSampleRate;
+        AccessLog.maxPayloadLength = accessLogMaxPayload;
     }
 
     public enum PlatformEnvironment {
@@ -139,6 +222,29 @@ public class PlatformConfig {
         res.put("containerTimeoutSec", containerTimeoutSec);
         res.put("defaultImageDirectory", defaultImageDirectory);
         res.put("eventHistorySize", eventHistorySize);
+        res.put("eventStreamBuffer", eventStreamBuffer);
+        res.put("eventJournalDirectory", eventJournalDirectory);
+        res.put("eventJournalSegmentMb", eventJournalSegmentMb);
+        res.put("eventJournalSegmentHours", eventJournalSegmentHours);
+        res.put("eventJournalRetentionHours", eventJournalRetentionHours);
+        res.put("eventJournalMaxSizeMb", eventJournalMaxSizeMb);
+        res.put("schemaCacheDirectory", schemaCacheDirectory);
+        res.put("loadBalancing", loadBalancing);
+        res.put("hedgingDelayMs", hedgingDelayMs);
+        res.put("hedgingBudgetPercent", hedgingBudgetPercent);
+        res.put("broadcastTimeoutMs", broadcastTimeoutMs);
+        res.put("coalesceInvokes", coalesceInvokes);
+        res.put("httpMaxConnectionsPerHost", httpMaxConnectionsPerHost);
+        res.put("httpConnectionWaitTimeoutMs", httpConnectionWaitTimeoutMs);
+        res.put("httpConnectTimeoutMs", httpConnectTimeoutMs);
+        res.put("httpRequestTimeoutMs", httpRequestTimeoutMs);
+        res.put("httpDataFormat", httpDataFormat);
+        res.put("httpCompression", httpCompression);
+        res.put("httpCompressionMinSize", httpCompressionMinSize);
+        res.put("accessLogSampleRate", accessLogSampleRate);
+        res.put("accessLogMaxPayload", accessLogMaxPayload);
+        res.put("circuitBreakerFailures", circuitBreakerFailures);
+        res.put("circuitBreakerOpenMs", circuitBreakerOpenMs);
         // auth stuff
         res.put("enableAuth", enableAuth);
         // user management stuff
@@ -222,6 +328,7 @@ public class PlatformConfig {
         env.put(AgentContainerApi.ENV_TOKEN, token);
         env.put(AgentContainerApi.ENV_OWNER, owner);
         env.put(AgentContainerApi.ENV_PLATFORM_URL, getOwnBaseUrl());
+        env.put(AgentContainerApi.ENV_DATA_FORMAT, httpDataFormat.name());
         // additional user-defined parameters
         for (AgentContainerImage.ImageParameter param : parameters) {
             if (arguments.containsKey(param.getName())) {
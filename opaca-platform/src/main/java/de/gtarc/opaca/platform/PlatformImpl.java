@@ -2,7 +2,6 @@ package de.gtarc.opaca.platform;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import de.gtarc.opaca.api.RuntimePlatformApi;
 import de.gtarc.opaca.platform.auth.JwtUtil;
 import de.gtarc.opaca.platform.user.TokenUserDetailsService;
 import de.gtarc.opaca.platform.containerclient.ContainerClient;
@@ -10,7 +9,10 @@ import de.gtarc.opaca.platform.containerclient.DockerClient;
 import de.gtarc.opaca.platform.containerclient.KubernetesClient;
 import de.gtarc.opaca.platform.session.SessionData;
 import de.gtarc.opaca.model.*;
+import de.gtarc.opaca.util.AccessLog;
 import de.gtarc.opaca.util.ApiProxy;
+import de.gtarc.opaca.util.CallContext;
+import de.gtarc.opaca.util.RestHelper;
 import lombok.extern.java.Log;
 import de.gtarc.opaca.util.EventHistory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,10 +25,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 
 /**
@@ -35,7 +38,7 @@ import org.springframework.web.server.ResponseStatusException;
  */
 @Log
 @Component
-public class PlatformImpl implements RuntimePlatformApi {
+public class PlatformImpl implements PlatformApi {
 
     @Autowired
     private SessionData sessionData;
@@ -63,8 +66,35 @@ public class PlatformImpl implements RuntimePlatformApi {
     /** Set of remote Runtime Platform URLs with a pending connection request */
     private final Set<String> pendingConnections = new HashSet<>();
 
-    /** Map of validators for validating action argument types for each container */
-    private final Map<String, ArgumentValidator> validators = new HashMap<>();
+    /** Validators for validating action argument types for each own or connected container */
+    private ValidatorCache validators;
+
+    /** Index of containers and platforms providing certain agents, actions and streams */
+    private final CapabilityIndex capabilities = new CapabilityIndex();
+
+    /** Order in which containers and platforms providing the same action are tried */
+    private LoadBalancer loadBalancer;
+
+    /** Stops sending requests to containers and platforms that are not available, if enabled */
+    private CircuitBreaker circuitBreaker;
+
+    /** Sends hedged requests to other candidates for slow invoke calls, if enabled */
+    private RequestHedger hedger;
+
+    /** Results of actions declared as cacheable */
+    private final ResultCache resultCache = new ResultCache();
+
+    /** Shares results of identical invoke calls in progress, if enabled */
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+
+    /** Proxies for forwarding requests to running containers and connected platforms */
+    private ProxyRegistry proxies;
+
+    /** Subscribers to new events in the history */
+    private EventStreams eventStreams;
+
+    /** Snapshot of running containers, agents and connections for the info routes; replaced on each change */
+    private volatile DirectorySnapshot directory;
 
 
     @PostConstruct
@@ -73,6 +103,12 @@ public class PlatformImpl implements RuntimePlatformApi {
         this.startedContainers = sessionData.startContainerRequests;
         this.tokens = sessionData.tokens;
         this.connectedPlatforms = sessionData.connectedPlatforms;
+        this.validators = new ValidatorCache(new SchemaLoader(config.schemaCacheDirectory));
+        this.loadBalancer = new LoadBalancer(config.loadBalancing);
+        this.circuitBreaker = new CircuitBreaker(config.circuitBreakerFailures, config.circuitBreakerOpenMs);
+        this.proxies = new ProxyRegistry(this::getClient, this::getPlatformClient, tokens);
+        this.hedger = new RequestHedger(config.hedgingDelayMs, config.hedgingBudgetPercent);
+        this.eventStreams = new EventStreams(config.eventStreamBuffer);
 
         // initialize container client based on environment
         if (config.containerEnvironment == PostAgentContainer.ContainerEnvironment.DOCKER) {
@@ -90,20 +126,37 @@ public class PlatformImpl implements RuntimePlatformApi {
         this.containerClient.initialize(config, sessionData);
         this.containerClient.testConnectivity();
 
+        reloadSessionData();
+    }
+
+    /**
+     * Rebuild validators, capability index and directory snapshot from the running containers and
+     * connected platforms in the session data, e.g. after those have been restored from file or reset.
+     */
+    public void reloadSessionData() {
+        validators.clear();
+        capabilities.clear();
+        loadBalancer.clear();
+        circuitBreaker.clear();
+        resultCache.clear();
+        proxies.clear();
         for (var containerId : runningContainers.keySet()) {
-            var image = runningContainers.get(containerId).getImage();
-            validators.put(containerId, new ArgumentValidator(image));
+            var container = runningContainers.get(containerId);
+            validators.putContainer(config.getOwnBaseUrl(), container);
+            capabilities.addContainer(container);
+            resultCache.update(containerId, List.of(container));
         }
+        for (var platformUrl : connectedPlatforms.keySet()) {
+            validators.putPlatform(platformUrl, connectedPlatforms.get(platformUrl));
+            capabilities.addPlatform(platformUrl, connectedPlatforms.get(platformUrl));
+            resultCache.update(platformUrl, connectedPlatforms.get(platformUrl).getContainers());
+        }
+        updateDirectory();
     }
 
     @Override
     public RuntimePlatform getPlatformInfo() {
-        return new RuntimePlatform(
-                config.getOwnBaseUrl(),
-                List.copyOf(runningContainers.values()),
-                List.of(), // TODO "provides" of platform? read from config? issue #42
-                List.copyOf(connectedPlatforms.keySet())
-        );
+        return directory.getPlatformInfo();
     }
 
     @Override
@@ -111,28 +164,64 @@ public class PlatformImpl implements RuntimePlatformApi {
         return config.toMap();
     }
 
+    @Override
+    public Map<String, ?> getStats() {
+        return Map.of(
+                "resultCache", resultCache.getStats(),
+                "coalescing", coalescer.getStats(),
+                "connections", RestHelper.getConnectionStats(),
+                "proxies", proxies.getStats(),
+                "circuits", circuitBreaker.getStats(),
+                "accessLog", Map.of("dropped", AccessLog.getDropped()),
+                "eventStreams", Map.of("subscribers", eventStreams.getSubscribers(), "dropped", eventStreams.getDropped())
+        );
+    }
+
     @Override
     public List<Event> getHistory() {
         return EventHistory.getInstance().getEvents();
     }
 
+    @Override
+    public List<Event> getHistory(String after, int limit, Event.EventType type, String route, String senderId, String relatedId) {
+        return EventHistory.getInstance().getEvents(after, limit, type, route, senderId, relatedId);
+    }
+
+    @Override
+    public SseEmitter subscribeHistory(String lastEventId, Event.EventType type, String route) {
+        return eventStreams.subscribe(lastEventId, type, route);
+    }
+
+    @Override
+    public List<TraceHop> getTrace(String correlationId, boolean forward) {
+        var events = EventHistory.getInstance().getEventsByCorrelationId(correlationId);
+        var trace = TraceHop.fromEvents(config.getOwnBaseUrl(), events);
+        if (forward) {
+            // only directly connected platforms, which are not asked to forward the request any further
+            for (String platformUrl : connectedPlatforms.keySet()) {
+                try {
+                    trace.addAll(proxies.getPlatform(platformUrl).getTrace(correlationId, false));
+                } catch (IOException e) {
+                    log.warning(String.format("Failed to get trace from %s: %s", platformUrl, e));
+                }
+            }
+        }
+        trace.sort(Comparator.comparing(TraceHop::getTimestamp));
+        return trace;
+    }
+
     /*
      * AGENTS ROUTES
      */
 
     @Override
     public List<AgentDescription> getAgents() {
-        return runningContainers.values().stream()
-                .flatMap(c -> c.getAgents().stream())
-                .collect(Collectors.toList());
+        return directory.getAgents();
     }
 
     @Override
     public AgentDescription getAgent(String agentId) {
-        return runningContainers.values().stream()
-                .flatMap(c -> c.getAgents().stream())
-                .filter(a -> a.getAgentId().equals(agentId))
-                .findAny().orElse(null);
+        return directory.getAgentsById().get(agentId);
     }
 
     @Override
@@ -150,70 +239,120 @@ public class PlatformImpl implements RuntimePlatformApi {
     @Override
     public void send(String agentId, Message message, String containerId, boolean forward) throws IOException, NoSuchElementException {
         var clients = getClients(containerId, agentId, null, null, null, forward);
-
-        IOException lastException = null;
-        for (ApiProxy client: (Iterable<? extends ApiProxy>) clients::iterator) {
-            log.info("Forwarding /send to " + client.baseUrl);
-            try {
-                client.send(agentId, message, containerId, false);
-                return;
-            } catch (IOException e) {
-                log.warning("Failed to forward /send to " + client.baseUrl + ": " + e);
-                lastException = e;
-            }
-        }
-        if (lastException != null) throw lastException;
-        throw new NoSuchElementException(String.format("Not found: agent '%s'", agentId));
+        RestHelper.await(tryInTurn(clients.iterator(), inCallContext(client -> {
+                    log.info("Forwarding /send to " + client.baseUrl);
+                    return circuitBreaker.call(client, c -> c.sendAsync(agentId, message, containerId, false));
+                }), "forward /send",
+                String.format("Not found: agent '%s'", agentId), null));
     }
 
     @Override
     public void broadcast(String channel, Message message, String containerId, boolean forward) {
+        broadcast(channel, message, containerId, forward, false);
+    }
+
+    /**
+     * Forward broadcast to all matching containers and platforms in parallel and wait for each of them
+     * to respond, up to the broadcast timeout, or return immediately if async is set.
+     */
+    @Override
+    public DeliveryReport broadcast(String channel, Message message, String containerId, boolean forward, boolean async) {
         var clients = getClients(containerId, null, null, null, null, forward);
 
-        for (ApiProxy client: (Iterable<? extends ApiProxy>) clients::iterator) {
+        Map<ApiProxy, CompletableFuture<DeliveryReport>> futures = new LinkedHashMap<>();
+        for (ApiProxy client : clients) {
             log.info("Forwarding /broadcast to " + client.baseUrl);
-            try {
-                client.broadcast(channel, message, containerId, false);
-            } catch (IOException e) {
-                log.warning("Failed to forward /broadcast to " + client.baseUrl + ": " + e);
+            var future = circuitBreaker.call(client, c -> c.broadcastAsync(channel, message, containerId, false));
+            futures.put(client, RestHelper.withCancellation(future.whenComplete((result, error) -> {
+                if (error != null) log.warning("Failed to forward /broadcast to " + client.baseUrl + ": " + error);
+            }), future));
+        }
+        if (async) {
+            return new DeliveryReport(List.of(), List.of(), List.of(), getBaseUrls(futures.keySet()));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new))
+                    .get(config.broadcastTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // outcome for each container and platform is checked below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        var report = new DeliveryReport(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), List.of());
+        for (var entry : futures.entrySet()) {
+            if (! entry.getValue().isDone()) {
+                log.warning("Timeout forwarding /broadcast to " + entry.getKey().baseUrl);
+                // aborts the request, so it does not keep holding a connection
+                entry.getValue().cancel(true);
+                report.getTimedOut().add(entry.getKey().baseUrl);
+            } else if (entry.getValue().isCompletedExceptionally()) {
+                report.getFailed().add(entry.getKey().baseUrl);
+            } else {
+                report.getSucceeded().add(entry.getKey().baseUrl);
+                // connected platforms report the outcome for their own containers
+                var nested = entry.getValue().join();
+                if (nested != null) {
+                    report.getSucceeded().addAll(nested.getSucceeded());
+                    report.getFailed().addAll(nested.getFailed());
+                    report.getTimedOut().addAll(nested.getTimedOut());
+                }
             }
         }
+        return report;
     }
 
     @Override
     public JsonNode invoke(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward) throws IOException, NoSuchElementException {
-        var clients = getClients(containerId, agentId, action, parameters, null, forward);
+        return invoke(action, parameters, agentId, timeout, containerId, forward, null);
+    }
 
-        IOException lastException = null;
-        for (ApiProxy client: (Iterable<? extends ApiProxy>) clients::iterator) {
-            try {
-                return client.invoke(action, parameters, agentId, timeout, containerId, false);
-            } catch (IOException e) {
-                log.warning(String.format("Failed to invoke action '%s' @ agent '%s' and client '%s': %s",
-                        action, agentId, client.baseUrl, e));
-                lastException = e;
-            }
+    @Override
+    public JsonNode invoke(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward,
+                           LoadBalancer.Strategy strategy) throws IOException, NoSuchElementException {
+        return RestHelper.await(invokeAsync(action, parameters, agentId, timeout, containerId, forward, strategy));
+    }
+
+    /**
+     * Like invoke, but without blocking the calling thread while waiting for the containers and platforms.
+     */
+    public CompletableFuture<JsonNode> invokeAsync(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward,
+                                                   LoadBalancer.Strategy strategy) {
+        var cached = resultCache.getSegment(action);
+        var key = cached != null || config.coalesceInvokes ? ResultCache.makeKey(agentId, containerId, forward, parameters) : null;
+        if (cached != null) {
+            var result = cached.get(key);
+            if (result != null) return CompletableFuture.completedFuture(result);
+        }
+        var future = config.coalesceInvokes
+                ? coalescer.call(String.format("%s/%s/%s", action, timeout, key),
+                        () -> invokeUncached(action, parameters, agentId, timeout, containerId, forward, strategy))
+                : invokeUncached(action, parameters, agentId, timeout, containerId, forward, strategy);
+        if (cached == null) return future;
+        return future.thenApply(result -> {
+            if (result != null) cached.put(key, result);
+            return result;
+        });
+    }
+
+    private CompletableFuture<JsonNode> invokeUncached(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward,
+                                                       LoadBalancer.Strategy strategy) {
+        var clients = loadBalancer.order(action, getClients(containerId, agentId, action, parameters, null, forward), strategy);
+        LoadBalancer.Call<JsonNode> call = inCallContext(client -> circuitBreaker.call(client,
+                c -> loadBalancer.call(c, c2 -> c2.invokeAsync(action, parameters, agentId, timeout, containerId, false))));
+        if (hedger.isEnabled() && clients.size() > 1) {
+            return hedger.call(action, clients, call);
         }
-        if (lastException != null) throw lastException;
-        throw new NoSuchElementException(String.format("Not found: action '%s' @ agent '%s', or the given parameters are invalid.", action, agentId));
+        return tryInTurn(clients.iterator(), call, String.format("invoke action '%s' @ agent '%s'", action, agentId),
+                String.format("Not found: action '%s' @ agent '%s', or the given parameters are invalid.", action, agentId), null);
     }
 
     @Override
     public InputStream getStream(String stream, String agentId, String containerId, boolean forward) throws IOException {
         var clients = getClients(containerId, agentId, null, null, stream, forward);
-
-        IOException lastException = null;
-        for (ApiProxy client: (Iterable<? extends ApiProxy>) clients::iterator) {
-            try {
-                return client.getStream(stream, agentId, containerId, false);
-            } catch (IOException e) {
-                log.warning(String.format("Failed to get stream '%s' @ agent '%s' and client '%s': %s",
-                        stream, agentId, client.baseUrl, e));
-                lastException = e;
-            }
-        }
-        if (lastException != null) throw lastException;
-        throw new NoSuchElementException(String.format("Not found: stream '%s' @ agent '%s'", stream, agentId));
+        return RestHelper.await(tryInTurn(clients.iterator(), inCallContext(client -> circuitBreaker.call(client, c -> c.getStreamAsync(stream, agentId, containerId, false))),
+                String.format("get stream '%s' @ agent '%s'", stream, agentId),
+                String.format("Not found: stream '%s' @ agent '%s'", stream, agentId), null));
     }
     
     /*
@@ -223,20 +362,9 @@ public class PlatformImpl implements RuntimePlatformApi {
     @Override
     public void postStream(String stream, byte[] inputStream, String agentId, String containerId, boolean forward) throws IOException {
         var clients = getClients(containerId, agentId, null, null, stream, forward);
-        
-        IOException lastException = null;
-        for (ApiProxy client: (Iterable<? extends ApiProxy>) clients::iterator) {
-            try {
-                client.postStream(stream, inputStream, agentId, containerId, false);
-                return;
-            } catch (IOException e) {
-                log.warning(String.format("Failed to post stream '%s' @ agent '%s' and client '%s': %s",
-                        stream, agentId, client.baseUrl, e));
-                lastException = e;
-            }
-        }
-        if (lastException != null) throw lastException;
-        throw new NoSuchElementException(String.format("Not found: stream '%s' @ agent '%s'", stream, agentId));
+        RestHelper.await(tryInTurn(clients.iterator(), inCallContext(client -> circuitBreaker.call(client, c -> c.postStreamAsync(stream, inputStream, agentId, containerId, false))),
+                String.format("post stream '%s' @ agent '%s'", stream, agentId),
+                String.format("Not found: stream '%s' @ agent '%s'", stream, agentId), null));
     }
 
     @Override
@@ -261,11 +389,10 @@ public class PlatformImpl implements RuntimePlatformApi {
             try {
                 var container = client.getContainerInfo();
                 container.setConnectivity(connectivity);
-                runningContainers.put(agentContainerId, container);
+                container.setOwner(owner);
                 startedContainers.put(agentContainerId, postContainer);
                 tokens.put(agentContainerId, token);
-                validators.put(agentContainerId, new ArgumentValidator(container.getImage()));
-                container.setOwner(owner);
+                putRunningContainer(agentContainerId, container);
                 userDetailsService.createUser(agentContainerId, agentContainerId,
                         config.enableAuth ? userDetailsService.getUserRole(owner) : Role.GUEST,
                         config.enableAuth ? userDetailsService.getUserPrivileges(owner) : null);
@@ -305,12 +432,12 @@ public class PlatformImpl implements RuntimePlatformApi {
 
     @Override
     public List<AgentContainer> getContainers() {
-        return List.copyOf(runningContainers.values());
+        return directory.getContainers();
     }
 
     @Override
     public AgentContainer getContainer(String containerId) {
-        return runningContainers.get(containerId);
+        return directory.getContainersById().get(containerId);
     }
 
     @Override
@@ -329,9 +456,8 @@ public class PlatformImpl implements RuntimePlatformApi {
             }
         }
         if (container == null) return false;
-        runningContainers.remove(containerId);
         startedContainers.remove(containerId);
-        validators.remove(containerId);
+        removeRunningContainer(containerId);
         userDetailsService.removeUser(containerId);
         containerClient.stopContainer(containerId);
         notifyConnectedPlatforms();
@@ -356,8 +482,8 @@ public class PlatformImpl implements RuntimePlatformApi {
                 // with auth, unidirectional
                 var token = getPlatformClient(url).login(new Login(loginConnection.getUsername(), loginConnection.getPassword()));
                 var info = getPlatformClient(url, token).getPlatformInfo();
-                connectedPlatforms.put(url, info);
                 tokens.put(url, token);
+                putConnectedPlatform(url, info);
             } else {
                 // without auth, bidirectional
                 try {
@@ -365,7 +491,7 @@ public class PlatformImpl implements RuntimePlatformApi {
                     url = info.getBaseUrl();
                     pendingConnections.add(url);
                     if (getPlatformClient(url).connectPlatform(new LoginConnection(null, null, config.getOwnBaseUrl()))) {
-                        connectedPlatforms.put(url, info);
+                        putConnectedPlatform(url, info);
                     }
                 } finally {
                     // also remove from pending in case client.post fails
@@ -378,14 +504,15 @@ public class PlatformImpl implements RuntimePlatformApi {
 
     @Override
     public List<String> getConnections() {
-        return List.copyOf(connectedPlatforms.keySet());
+        return directory.getConnections();
     }
     
     @Override
     public boolean disconnectPlatform(String url) throws IOException {
         url = normalizeString(url);
         checkUrl(url);
-        if (connectedPlatforms.remove(url) != null) {
+        if (connectedPlatforms.containsKey(url)) {
+            removeConnectedPlatform(url);
             if (tokens.containsKey(url)) {
                 tokens.remove(url);
             } else {
@@ -406,16 +533,15 @@ public class PlatformImpl implements RuntimePlatformApi {
             throw new NoSuchElementException(msg);
         }
         try {
-            var client = this.getClient(containerId, tokens.get(containerId));
+            var client = proxies.getContainer(containerId);
             var containerInfo = client.getContainerInfo();
             containerInfo.setConnectivity(runningContainers.get(containerId).getConnectivity());
-            runningContainers.put(containerId, containerInfo);
-            validators.put(containerId, new ArgumentValidator(containerInfo.getImage()));
+            putRunningContainer(containerId, containerInfo);
             notifyConnectedPlatforms();
             return true;
         } catch (IOException e) {
             log.warning(String.format("Container did not respond: %s; removing...", containerId));
-            runningContainers.remove(containerId);
+            removeRunningContainer(containerId);
             return false;
         }
     }
@@ -434,13 +560,13 @@ public class PlatformImpl implements RuntimePlatformApi {
             throw new NoSuchElementException(msg);
         }
         try {
-            var client = getPlatformClient(platformUrl);
+            var client = proxies.getPlatform(platformUrl);
             var platformInfo = client.getPlatformInfo();
-            connectedPlatforms.put(platformUrl, platformInfo);
+            putConnectedPlatform(platformUrl, platformInfo);
             return true;
         } catch (IOException e) {
             log.warning(String.format("Platform did not respond: %s; removing...", platformUrl));
-            connectedPlatforms.remove(platformUrl);
+            removeConnectedPlatform(platformUrl);
             return false;
         }
     }
@@ -449,6 +575,88 @@ public class PlatformImpl implements RuntimePlatformApi {
      * HELPER METHODS
      */
 
+    /**
+     * Make sure the call is made in the context of the current request's CALL event (for relating FORWARD events
+     * to it) even if it is started from a different thread, e.g. when trying the next client after one failed.
+     */
+    private <T> LoadBalancer.Call<T> inCallContext(LoadBalancer.Call<T> call) {
+        var callEvent = CallContext.getCall();
+        return client -> CallContext.withCall(callEvent, () -> call.apply(client));
+    }
+
+    /**
+     * Make the call to the remaining clients in turn, each after the previous one failed, until one succeeds,
+     * without blocking a thread while waiting. Completes with the last exception if all failed, or with
+     * NoSuchElementException if there were no clients at all.
+     */
+    private <T> CompletableFuture<T> tryInTurn(Iterator<ApiProxy> clients, LoadBalancer.Call<T> call, String what, String notFound, Throwable lastError) {
+        if (! clients.hasNext()) {
+            return CompletableFuture.failedFuture(lastError != null ? lastError : new NoSuchElementException(notFound));
+        }
+        var client = clients.next();
+        return call.apply(client).exceptionallyCompose(error -> {
+            var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (! (cause instanceof IOException)) return CompletableFuture.failedFuture(cause);
+            log.warning(String.format("Failed to %s at client '%s': %s", what, client.baseUrl, cause));
+            return tryInTurn(clients, call, what, notFound, cause);
+        });
+    }
+
+    /**
+     * Add or update a running container, and update validators, capability index and directory snapshot.
+     */
+    private synchronized void putRunningContainer(String containerId, AgentContainer container) {
+        runningContainers.put(containerId, container);
+        proxies.removeContainer(containerId);
+        validators.putContainer(config.getOwnBaseUrl(), container);
+        capabilities.addContainer(container);
+        resultCache.update(containerId, List.of(container));
+        updateDirectory();
+    }
+
+    private synchronized void removeRunningContainer(String containerId) {
+        loadBalancer.remove(containerClient.getUrl(containerId));
+        circuitBreaker.remove(containerClient.getUrl(containerId));
+        runningContainers.remove(containerId);
+        proxies.removeContainer(containerId);
+        validators.removeContainer(config.getOwnBaseUrl(), containerId);
+        capabilities.removeContainer(containerId);
+        resultCache.remove(containerId);
+        updateDirectory();
+    }
+
+    /**
+     * Add or update a connected platform, and update validators, capability index and directory snapshot.
+     */
+    private synchronized void putConnectedPlatform(String platformUrl, RuntimePlatform platform) {
+        connectedPlatforms.put(platformUrl, platform);
+        proxies.removePlatform(platformUrl);
+        validators.putPlatform(platformUrl, platform);
+        capabilities.addPlatform(platformUrl, platform);
+        resultCache.update(platformUrl, platform.getContainers());
+        updateDirectory();
+    }
+
+    private synchronized void removeConnectedPlatform(String platformUrl) {
+        loadBalancer.remove(platformUrl);
+        circuitBreaker.remove(platformUrl);
+        connectedPlatforms.remove(platformUrl);
+        proxies.removePlatform(platformUrl);
+        validators.removePlatform(platformUrl);
+        capabilities.removePlatform(platformUrl);
+        resultCache.remove(platformUrl);
+        updateDirectory();
+    }
+
+    /**
+     * Create a new directory snapshot from the current containers and connections. Changes are synchronized,
+     * so no snapshot can miss a concurrent change, but reading the current snapshot is never blocked.
+     */
+    private synchronized void updateDirectory() {
+        long version = directory == null ? 0 : directory.getVersion() + 1;
+        directory = new DirectorySnapshot(version, config.getOwnBaseUrl(), runningContainers, connectedPlatforms.keySet());
+    }
+
     /**
      * Whenever there is a change in this platform's Agent Containers (added, removed, or updated),
      * call the /notify route of all connected Runtime Platforms, so they can pull the updated /info
@@ -460,7 +668,7 @@ public class PlatformImpl implements RuntimePlatformApi {
         // TODO with connect not being bidirectional, this does not really make sense anymore
         //  adapt to possible new /subscribe route, or change entirely?
         for (String platformUrl : connectedPlatforms.keySet()) {
-            var client = getPlatformClient(platformUrl);
+            var client = proxies.getPlatform(platformUrl);
             try {
                 client.notifyUpdatePlatform(config.getOwnBaseUrl());
             } catch (IOException e) {
@@ -471,6 +679,7 @@ public class PlatformImpl implements RuntimePlatformApi {
 
     /**
      * get a list of clients for all containers/platforms that fulfill the given agent/action requirements.
+     * The candidates are looked up in the capability index first and then checked in detail.
      *
      * @param containerId container on which should be searched for valid agents/actions
      * @param agentId ID of the agent on which the action should be invoked or to which a message should be sent
@@ -478,28 +687,38 @@ public class PlatformImpl implements RuntimePlatformApi {
      * @param includeConnected Whether to also forward to connected Runtime Platforms
      * @return list of clients to send requests to these valid containers/platforms
      */
-    private Stream<ApiProxy> getClients(String containerId, String agentId, String action, Map<String, JsonNode> parameters, String stream, boolean includeConnected) {
-        // local containers
-        var containerClients = runningContainers.values().stream()
-                .filter(c -> matches(c, containerId, agentId, action, parameters, stream))
-                .map(c -> getClient(c.getContainerId(), tokens.get(c.getContainerId())));
+    private List<ApiProxy> getClients(String containerId, String agentId, String action, Map<String, JsonNode> parameters, String stream, boolean includeConnected) {
+        List<ApiProxy> clients = new ArrayList<>();
 
-        if (!includeConnected) return containerClients;
+        // local containers
+        var containerIds = containerId != null ? Set.of(containerId) : capabilities.findContainers(agentId, action, stream);
+        for (String id : containerIds != null ? containerIds : runningContainers.keySet()) {
+            var container = runningContainers.get(id);
+            if (container != null && matches(config.getOwnBaseUrl(), container, containerId, agentId, action, parameters, stream)) {
+                clients.add(proxies.getContainer(id));
+            }
+        }
 
         // remote platforms
-        var platformClients = connectedPlatforms.entrySet().stream()
-            .filter(entry -> entry.getValue().getContainers().stream().anyMatch(c -> matches(c, containerId, agentId, action, parameters, stream)))
-            .map(entry -> getPlatformClient(entry.getKey(), tokens.get(entry.getKey())));
+        if (includeConnected) {
+            var platformUrls = capabilities.findPlatforms(agentId, action, stream);
+            for (String url : platformUrls != null ? platformUrls : connectedPlatforms.keySet()) {
+                var platform = connectedPlatforms.get(url);
+                if (platform != null && platform.getContainers().stream().anyMatch(c -> matches(url, c, containerId, agentId, action, parameters, stream))) {
+                    clients.add(proxies.getPlatform(url));
+                }
+            }
+        }
 
-        return Stream.concat(containerClients, platformClients);
+        // skip those that are currently not available, unless none is, so the request fails with the reason
+        var available = clients.stream().filter(c -> circuitBreaker.isAvailable(c.baseUrl)).collect(Collectors.toList());
+        return available.isEmpty() ? clients : available;
     }
     /**
      * Check if Container ID matches and has matching agent and/or action.
      */
-    private boolean matches(AgentContainer container, String containerId, String agentId, String action, Map<String, JsonNode> arguments, String stream) {
-        var validator = validators.containsKey(container.getContainerId())
-                ? validators.get(container.getContainerId()) // own container
-                : new ArgumentValidator(container.getImage()); // connected rp container
+    private boolean matches(String platformUrl, AgentContainer container, String containerId, String agentId, String action, Map<String, JsonNode> arguments, String stream) {
+        var validator = validators.get(platformUrl, container.getContainerId());
         return (containerId == null || container.getContainerId().equals(containerId)) &&
                 container.getAgents().stream()
                         .anyMatch(a -> (agentId == null || a.getAgentId().equals(agentId))
@@ -531,6 +750,10 @@ public class PlatformImpl implements RuntimePlatformApi {
         return new ApiProxy(url, config.getOwnBaseUrl(), token);
     }
 
+    private List<String> getBaseUrls(Collection<ApiProxy> clients) {
+        return clients.stream().map(c -> c.baseUrl).collect(Collectors.toList());
+    }
+
     private String normalizeString(String string) {
         // string payload may or may not be enclosed in quotes -> normalize
         return string.trim().replaceAll("^\"|\"$", "");
@@ -2,9 +2,7 @@ package de.gtarc.opaca.platform;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import de.gtarc.opaca.api.RuntimePlatformApi;
 import de.gtarc.opaca.model.*;
-import de.gtarc.opaca.util.EventHistory;
 import de.gtarc.opaca.util.RestHelper.RequestException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
@@ -14,10 +12,9 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import jakarta.annotation.PostConstruct;
-
 import java.io.*;
 import java.util.List;
 import java.util.Map;
@@ -36,21 +33,9 @@ import java.util.NoSuchElementException;
 public class PlatformRestController {
 
 	@Autowired
-	private RuntimePlatformApi implementation;
-
-	@Autowired
-	private PlatformConfig config;
+	private PlatformApi implementation;
 
 
-	/*
-	 * LIFECYCLE
-	 */
-
-	@PostConstruct
-	public void postConstruct() {
-		EventHistory.maxSize = config.eventHistorySize;
-	}
-
 	/*
 	 * GENERIC/AUTOMATIC EXCEPTION HANDLING
 	 */
@@ -120,22 +105,78 @@ public class PlatformRestController {
 	@RequestMapping(value="/info", method=RequestMethod.GET)
 	@Operation(summary="Get information on this Runtime Platform", tags={"info"})
 	public RuntimePlatform getPlatformInfo() throws IOException {
-		log.info("Get Info");
+		log.fine("Get Info");
 		return implementation.getPlatformInfo();
 	}
 
 	@RequestMapping(value="/config", method=RequestMethod.GET)
 	@Operation(summary="Get Configuration of this Runtime Platform", tags={"info"})
 	public Map<String, ?> getPlatformConfig() throws IOException {
-		log.info("Get Config");
+		log.fine("Get Config");
 		return implementation.getPlatformConfig();
 	}
 
+	@RequestMapping(value="/stats", method=RequestMethod.GET)
+	@Operation(summary="Get statistics on caches etc. of this Runtime Platform", tags={"info"})
+	public Map<String, ?> getStats() {
+		log.fine("Get Stats");
+		return implementation.getStats();
+	}
+
+	@RequestMapping(value="/metrics", method=RequestMethod.GET)
+	@Operation(summary="Get latency histograms and requests in progress on this Runtime Platform, in Prometheus format, or as JSON with format=json", tags={"info"})
+	public ResponseEntity<?> getMetrics(
+			@RequestParam(required = false) String format,
+			@RequestHeader(value="Accept", required = false) String accept
+	) {
+		log.fine(() -> String.format("Get Metrics: format=%s, accept=%s", format, accept));
+		// Prometheus format unless JSON is requested explicitly, as scrapers may accept anything
+		if ("json".equals(format) || MediaType.APPLICATION_JSON_VALUE.equals(accept)) {
+			return ResponseEntity.ok()
+					.contentType(MediaType.APPLICATION_JSON)
+					.body(RequestMetrics.getInstance().toJson());
+		}
+		return ResponseEntity.ok()
+				.contentType(MediaType.parseMediaType("text/plain; version=0.0.4; charset=utf-8"))
+				.body(RequestMetrics.getInstance().toPrometheus());
+	}
+
 	@RequestMapping(value="/history", method=RequestMethod.GET)
-	@Operation(summary="Get history on this Runtime Platform", tags={"info"})
-	public List<Event> getHistory() throws IOException {
-		log.info("Get History");
-		return implementation.getHistory();
+	@Operation(summary="Get history on this Runtime Platform, optionally filtered and page by page", tags={"info"})
+	public List<Event> getHistory(
+			@RequestParam(required = false) String after,
+			@RequestParam(required = false, defaultValue = "0") int limit,
+			@RequestParam(required = false) Event.EventType type,
+			@RequestParam(required = false) String route,
+			@RequestParam(required = false) String sender,
+			@RequestParam(required = false) String relatedId
+	) throws IOException {
+		log.fine(() -> String.format("Get History: %s, %s, %s, %s, %s, %s", after, limit, type, route, sender, relatedId));
+		if (after == null && limit <= 0 && type == null && route == null && sender == null && relatedId == null) {
+			return implementation.getHistory();
+		}
+		return implementation.getHistory(after, limit, type, route, sender, relatedId);
+	}
+
+	@RequestMapping(value="/history/stream", method=RequestMethod.GET, produces=MediaType.TEXT_EVENT_STREAM_VALUE)
+	@Operation(summary="Get new events on this Runtime Platform as they happen, as Server-Sent Events", tags={"info"})
+	public SseEmitter getHistoryStream(
+			@RequestHeader(value="Last-Event-ID", required = false) String lastEventId,
+			@RequestParam(required = false) Event.EventType type,
+			@RequestParam(required = false) String route
+	) {
+		log.fine(() -> String.format("Get History Stream: %s, %s, %s", lastEventId, type, route));
+		return implementation.subscribeHistory(lastEventId, type, route);
+	}
+
+	@RequestMapping(value="/history/trace/{correlationId}", method=RequestMethod.GET)
+	@Operation(summary="Get timeline of the request with the given correlation ID on this and connected Runtime Platforms", tags={"info"})
+	public List<TraceHop> getTrace(
+			@PathVariable String correlationId,
+			@RequestParam(required = false, defaultValue = "true") boolean forward
+	) throws IOException {
+		log.fine(() -> String.format("Get Trace: %s", correlationId));
+		return implementation.getTrace(correlationId, forward);
 	}
 
 	/*
@@ -145,7 +186,7 @@ public class PlatformRestController {
 	@RequestMapping(value="/agents", method=RequestMethod.GET)
 	@Operation(summary="Get List of Agents of all Agent Containers on this Platform", tags={"agents"})
 	public List<AgentDescription> getAgents() throws IOException {
-		log.info("GET AGENTS");
+		log.fine("GET AGENTS");
 		return implementation.getAgents();
 	}
 
@@ -154,7 +195,7 @@ public class PlatformRestController {
 	public AgentDescription getAgent(
 			@PathVariable String agentId
 	) throws IOException {
-		log.info(String.format("GET AGENT: %s", agentId));
+		log.fine(() -> String.format("GET AGENT: %s", agentId));
 		return implementation.getAgent(agentId);
 	}
 
@@ -166,20 +207,21 @@ public class PlatformRestController {
 			@RequestParam(required = false) String containerId,
 			@RequestParam(required = false, defaultValue = "true") boolean forward
 	) throws IOException {
-		log.info(String.format("SEND: %s, %s", agentId, message));
+		log.fine(() -> String.format("SEND: %s, %s", agentId, message));
 		implementation.send(agentId, message, containerId, forward);
 	}
 
 	@RequestMapping(value="/broadcast/{channel}", method=RequestMethod.POST)
 	@Operation(summary="Send broadcast message to all agents in all containers", tags={"agents"})
-	public void broadcast(
+	public DeliveryReport broadcast(
 			@PathVariable String channel,
 			@RequestBody Message message,
 			@RequestParam(required = false) String containerId,
-			@RequestParam(required = false, defaultValue = "true") boolean forward
+			@RequestParam(required = false, defaultValue = "true") boolean forward,
+			@RequestParam(required = false, defaultValue = "false") boolean async
 	) throws IOException {
-		log.info(String.format("BROADCAST: %s, %s", channel, message));
-		implementation.broadcast(channel, message, containerId, forward);
+		log.fine(() -> String.format("BROADCAST: %s, %s", channel, message));
+		return implementation.broadcast(channel, message, containerId, forward, async);
 	}
 
 	@RequestMapping(value="/invoke/{action}", method=RequestMethod.POST)
@@ -189,10 +231,11 @@ public class PlatformRestController {
 			@RequestBody Map<String, JsonNode> parameters,
 			@RequestParam(required = false, defaultValue = "-1") int timeout,
 			@RequestParam(required = false) String containerId,
-			@RequestParam(required = false, defaultValue = "true") boolean forward
+			@RequestParam(required = false, defaultValue = "true") boolean forward,
+			@RequestParam(required = false) LoadBalancer.Strategy loadBalancing
 	) throws IOException {
-		log.info(String.format("INVOKE: %s, %s", action, parameters));
-		return implementation.invoke(action, parameters, null, timeout, containerId, forward);
+		log.fine(() -> String.format("INVOKE: %s, %s", action, parameters));
+		return implementation.invoke(action, parameters, null, timeout, containerId, forward, loadBalancing);
 	}
 
 	@RequestMapping(value="/invoke/{action}/{agentId}", method=RequestMethod.POST)
@@ -203,10 +246,11 @@ public class PlatformRestController {
 			@PathVariable String agentId,
 			@RequestParam(required = false, defaultValue = "-1") int timeout,
 			@RequestParam(required = false) String containerId,
-			@RequestParam(required = false, defaultValue = "true") boolean forward
+			@RequestParam(required = false, defaultValue = "true") boolean forward,
+			@RequestParam(required = false) LoadBalancer.Strategy loadBalancing
 	) throws IOException {
-		log.info(String.format("INVOKE: %s, %s, %s", action, agentId, parameters));
-		return implementation.invoke(action, parameters, agentId, timeout, containerId, forward);
+		log.fine(() -> String.format("INVOKE: %s, %s, %s", action, agentId, parameters));
+		return implementation.invoke(action, parameters, agentId, timeout, containerId, forward, loadBalancing);
 	}
 
 	@RequestMapping(value="/stream/{stream}", method=RequestMethod.GET)
@@ -216,7 +260,7 @@ public class PlatformRestController {
 			@RequestParam(required = false) String containerId,
 			@RequestParam(required = false, defaultValue = "true") boolean forward
 	) throws IOException {
-		log.info(String.format("STREAM: %s ", stream));
+		log.fine(() -> String.format("STREAM: %s ", stream));
 		return wrapStream(implementation.getStream(stream, null, containerId, forward));
 	}
 
@@ -228,7 +272,7 @@ public class PlatformRestController {
 			@RequestParam(required = false) String containerId,
 			@RequestParam(required = false, defaultValue = "true") boolean forward
 	) throws IOException {
-		log.info(String.format("STREAM: %s, %s", stream, agentId));
+		log.fine(() -> String.format("STREAM: %s, %s", stream, agentId));
 		return wrapStream(implementation.getStream(stream, agentId, containerId, forward));
 	}
 
@@ -240,7 +284,7 @@ public class PlatformRestController {
             @RequestParam(required = false) String containerId,
             @RequestParam(required = false, defaultValue = "true") boolean forward
     ) throws IOException {
-        log.info(String.format("POST STREAM: %s ", stream));
+        log.fine(() -> String.format("POST STREAM: %s ", stream));
         implementation.postStream(stream, inputStream, null, containerId, forward);
     }
 
@@ -253,7 +297,7 @@ public class PlatformRestController {
             @RequestParam(required = false) String containerId,
             @RequestParam(required = false, defaultValue = "true") boolean forward
     ) throws IOException {
-        log.info(String.format("POST STREAM: %s, %s", stream, agentId));
+        log.fine(() -> String.format("POST STREAM: %s, %s", stream, agentId));
         implementation.postStream(stream, inputStream, agentId, containerId, forward);
     }
 
@@ -266,14 +310,14 @@ public class PlatformRestController {
 	public String addContainer(
 			@RequestBody PostAgentContainer container
 	) throws IOException {
-		log.info(String.format("ADD CONTAINER: %s", container));
+		log.fine(() -> String.format("ADD CONTAINER: %s", container));
 		return implementation.addContainer(container);
 	}
 
 	@RequestMapping(value="/containers", method=RequestMethod.GET)
 	@Operation(summary="Get all Agent Containers running on this platform", tags={"containers"})
 	public List<AgentContainer> getContainers() throws IOException {
-		log.info("GET CONTAINERS");
+		log.fine("GET CONTAINERS");
 		return implementation.getContainers();
 	}
 
@@ -282,7 +326,7 @@ public class PlatformRestController {
 	public AgentContainer getContainer(
 			@PathVariable String containerId
 	) throws IOException {
-		log.info(String.format("GET CONTAINER: %s", containerId));
+		log.fine(() -> String.format("GET CONTAINER: %s", containerId));
 		return implementation.getContainer(containerId);
 	}
 
@@ -292,7 +336,7 @@ public class PlatformRestController {
 	public boolean removeContainer(
 			@PathVariable String containerId
 	) throws IOException {
-		log.info(String.format("REMOVE CONTAINER: %s", containerId));
+		log.fine(() -> String.format("REMOVE CONTAINER: %s", containerId));
 		return implementation.removeContainer(containerId);
 	}
 
@@ -307,14 +351,14 @@ public class PlatformRestController {
 			@RequestBody LoginConnection loginConnection
 	) throws IOException {
 		// TODO handle IO Exception (platform not found or does not respond, could be either 404 or 502)
-		log.info(String.format("CONNECT PLATFORM: %s", loginConnection.getUrl()));
+		log.fine(() -> String.format("CONNECT PLATFORM: %s", loginConnection.getUrl()));
 		return implementation.connectPlatform(loginConnection);
 	}
 
 	@RequestMapping(value="/connections", method=RequestMethod.GET)
 	@Operation(summary="Get list of connected Runtime Platforms", tags={"connections"})
 	public List<String> getConnections() throws IOException {
-		log.info("GET CONNECTIONS");
+		log.fine("GET CONNECTIONS");
 		return implementation.getConnections();
 	}
 
@@ -323,7 +367,7 @@ public class PlatformRestController {
 	public boolean disconnectPlatform(
 			@RequestBody String url
 	) throws IOException {
-		log.info(String.format("DISCONNECT PLATFORM: %s", url));
+		log.fine(() -> String.format("DISCONNECT PLATFORM: %s", url));
 		return implementation.disconnectPlatform(url);
 	}
 
@@ -334,14 +378,14 @@ public class PlatformRestController {
 	@RequestMapping(value="/containers/notify", method=RequestMethod.POST)
 	@Operation(summary="Notify Platform about updates", tags={"containers"})
 	public boolean notifyUpdateContainer(@RequestBody String containerId) throws IOException {
-		log.info(String.format("NOTIFY: %s", containerId));
+		log.fine(() -> String.format("NOTIFY: %s", containerId));
 		return implementation.notifyUpdateContainer(containerId);
 	}
 
 	@RequestMapping(value="/connections/notify", method=RequestMethod.POST)
 	@Operation(summary="Notify Platform about updates", tags={"connections"})
 	public boolean notifyUpdatePlatform(@RequestBody String platformUrl) throws IOException {
-		log.info(String.format("NOTIFY: %s", platformUrl));
+		log.fine(() -> String.format("NOTIFY: %s", platformUrl));
 		return implementation.notifyUpdatePlatform(platformUrl);
 	}
 
@@ -350,7 +394,11 @@ public class PlatformRestController {
 	 */
 
 	private ResponseEntity<StreamingResponseBody> wrapStream(InputStream stream) {
-		StreamingResponseBody responseBody = stream::transferTo;
+		StreamingResponseBody responseBody = out -> {
+			try (stream) {
+				stream.transferTo(out);
+			}
+		};
 		return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(responseBody);
 	}
 
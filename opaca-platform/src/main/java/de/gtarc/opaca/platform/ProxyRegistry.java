@@ -0,0 +1,65 @@
+package de.gtarc.opaca.platform;
+
+import de.gtarc.opaca.util.ApiProxy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Long-lived ApiProxy instances for the running containers and connected platforms, so that those do
+ * not have to be created (and the container's URL looked up) for each forwarded request. Proxies are
+ * created on first use with the current token and have to be removed whenever the container or platform
+ * is updated or removed, or its token changes.
+ */
+public class ProxyRegistry {
+
+    /** proxies by container ID */
+    private final Map<String, ApiProxy> containers = new ConcurrentHashMap<>();
+
+    /** proxies by platform URL */
+    private final Map<String, ApiProxy> platforms = new ConcurrentHashMap<>();
+
+    /** for creating proxies with given container ID or platform URL and token */
+    private final BiFunction<String, String, ApiProxy> containerFactory;
+    private final BiFunction<String, String, ApiProxy> platformFactory;
+
+    /** tokens by container ID and platform URL */
+    private final Map<String, String> tokens;
+
+    public ProxyRegistry(BiFunction<String, String, ApiProxy> containerFactory, BiFunction<String, String, ApiProxy> platformFactory,
+                         Map<String, String> tokens) {
+        this.containerFactory = containerFactory;
+        this.platformFactory = platformFactory;
+        this.tokens = tokens;
+    }
+
+    public ApiProxy getContainer(String containerId) {
+        return containers.computeIfAbsent(containerId, id -> containerFactory.apply(id, tokens.get(id)));
+    }
+
+    public ApiProxy getPlatform(String platformUrl) {
+        return platforms.computeIfAbsent(platformUrl, url -> platformFactory.apply(url, tokens.get(url)));
+    }
+
+    public void removeContainer(String containerId) {
+        containers.remove(containerId);
+    }
+
+    public void removePlatform(String platformUrl) {
+        platforms.remove(platformUrl);
+    }
+
+    public void clear() {
+        containers.clear();
+        platforms.clear();
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "containers", containers.size(),
+                "platforms", platforms.size()
+        );
+    }
+
+}
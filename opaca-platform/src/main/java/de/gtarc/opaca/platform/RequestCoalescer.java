@@ -0,0 +1,61 @@
+package de.gtarc.opaca.platform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent identical calls, e.g. invoking the same action with the same parameters, share a single
+ * call to the container, instead of each being forwarded separately. All of them get the same result,
+ * or the same exception. Calls are only shared while in progress; nothing is cached afterwards.
+ */
+public class RequestCoalescer {
+
+    /** calls currently in progress, by key */
+    private final Map<String, CompletableFuture<JsonNode>> inFlight = new ConcurrentHashMap<>();
+
+    /** number of calls that did not have to be made as an identical call was already in progress */
+    @Getter
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Make the call, or get the result of an identical call with the same key already in progress.
+     */
+    public CompletableFuture<JsonNode> call(String key, Supplier<CompletableFuture<JsonNode>> call) {
+        var future = new CompletableFuture<JsonNode>();
+        var existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            // each caller gets its own copy, as the result may be modified later on
+            return existing.thenApply(result -> result == null ? null : result.deepCopy());
+        }
+        CompletableFuture<JsonNode> actual;
+        try {
+            actual = call.get();
+        } catch (RuntimeException e) {
+            actual = CompletableFuture.failedFuture(e);
+        }
+        actual.whenComplete((result, error) -> {
+            inFlight.remove(key, future);
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        });
+        return future;
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "coalesced", coalesced.get(),
+                "inFlight", inFlight.size()
+        );
+    }
+
+}
@@ -0,0 +1,186 @@
+package de.gtarc.opaca.platform;
+
+import de.gtarc.opaca.util.ApiProxy;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tries the different candidates for a request in turn until one succeeds, like the normal failover, but
+ * if the first candidate does not respond within some delay, a second "hedged" request is sent to the
+ * next candidate. Whichever succeeds first is returned, and the other is cancelled, aborting the request. The delay is either
+ * fixed, or the observed 95th percentile latency for the respective action. The number of hedged requests
+ * is limited to a percentage of all requests, so that hedging does not overload the containers.
+ *
+ * Note that with hedging, an action may be executed twice, so this should only be used if all actions
+ * are idempotent, or if executing them twice does not matter.
+ */
+@Log
+public class RequestHedger {
+
+    /** minimum number of samples before the observed latency is used as delay */
+    private static final int MIN_SAMPLES = 20;
+
+    /** number of latest samples per action used for the percentile */
+    private static final int WINDOW_SIZE = 100;
+
+    /** delay after which to send hedged request; 0 for observed p95 latency, negative for no hedging */
+    private final long delayMillis;
+
+    /** maximum number of hedged requests, in percent of all requests */
+    private final double budgetPercent;
+
+    @Getter
+    private final AtomicLong requests = new AtomicLong();
+
+    @Getter
+    private final AtomicLong hedgedRequests = new AtomicLong();
+
+    /** latest successful latencies by key, e.g. action name */
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    public RequestHedger(long delayMillis, double budgetPercent) {
+        this.delayMillis = delayMillis;
+        this.budgetPercent = budgetPercent;
+    }
+
+    public boolean isEnabled() {
+        return delayMillis >= 0 && budgetPercent > 0;
+    }
+
+    /**
+     * Make the call to the given candidates in turn, with a hedged request to the next candidate if the
+     * first one does not respond in time, and get the first successful result. No thread is blocked while
+     * waiting for the responses.
+     *
+     * @param key key for the latency percentile, e.g. the action name
+     * @param clients the candidates, in the order in which they should be tried
+     * @param call the call to make to each candidate
+     * @return future completed with the first result, or the last exception if all candidates failed,
+     *         or NoSuchElementException if there are no candidates
+     */
+    public <T> CompletableFuture<T> call(String key, List<ApiProxy> clients, LoadBalancer.Call<T> call) {
+        requests.incrementAndGet();
+        if (clients.isEmpty()) {
+            return CompletableFuture.failedFuture(new NoSuchElementException("No candidates for request"));
+        }
+        var hedgedCall = new HedgedCall<>(key, clients, call);
+        hedgedCall.startNext();
+        return hedgedCall.result;
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    /**
+     * State of a single hedged call; all methods are synchronized, as the calls may complete concurrently.
+     */
+    private class HedgedCall<T> {
+
+        final String key;
+        final List<ApiProxy> clients;
+        final LoadBalancer.Call<T> call;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        final List<CompletableFuture<T>> running = new ArrayList<>();
+        int next = 0;
+        boolean hedged = false;
+
+        HedgedCall(String key, List<ApiProxy> clients, LoadBalancer.Call<T> call) {
+            this.key = key;
+            this.clients = clients;
+            this.call = call;
+        }
+
+        synchronized void startNext() {
+            var client = clients.get(next++);
+            long start = System.nanoTime();
+            CompletableFuture<T> future;
+            try {
+                future = call.apply(client);
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            running.add(future);
+            var thisFuture = future;
+            future.whenComplete((value, error) -> completed(client, thisFuture, start, value, error));
+
+            // if no other call is running, send hedged request if this one does not complete in time
+            long delay = ! hedged && next < clients.size() && running.size() == 1 ? getDelay(key) : -1;
+            if (delay >= 0 && ! future.isDone()) {
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> hedge(thisFuture, delay));
+            }
+        }
+
+        synchronized void hedge(CompletableFuture<T> slow, long delay) {
+            if (result.isDone() || slow.isDone() || hedged || next >= clients.size()) return;
+            hedged = true;
+            if (hedgedRequests.get() < requests.get() * budgetPercent / 100) {
+                log.info(String.format("Sending hedged request to %s after %d ms", clients.get(next).baseUrl, delay));
+                hedgedRequests.incrementAndGet();
+                startNext();
+            }
+        }
+
+        synchronized void completed(ApiProxy client, CompletableFuture<T> future, long start, T value, Throwable error) {
+            running.remove(future);
+            if (result.isDone()) return;
+            var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause == null) {
+                latencies.computeIfAbsent(key, k -> new LatencyWindow()).add((System.nanoTime() - start) / 1_000_000);
+                result.complete(value);
+            } else if (! (cause instanceof IOException)) {
+                result.completeExceptionally(cause);
+            } else {
+                log.warning(String.format("Failed request to %s: %s", client.baseUrl, cause));
+                if (! running.isEmpty()) return;
+                if (next < clients.size()) {
+                    startNext();
+                } else {
+                    result.completeExceptionally(cause);
+                }
+                return;
+            }
+            // cancel the slower request, if any, which also aborts its HTTP exchange
+            new ArrayList<>(running).forEach(f -> f.cancel(true));
+        }
+    }
+
+    /**
+     * Get delay after which to send a hedged request, or -1 if not yet known.
+     */
+    private long getDelay(String key) {
+        if (delayMillis > 0) return delayMillis;
+        var window = latencies.get(key);
+        return window == null ? -1 : window.getPercentile(0.95);
+    }
+
+    /**
+     * The latest latencies for one action, in milliseconds.
+     */
+    private static class LatencyWindow {
+
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int next = 0;
+        private int count = 0;
+
+        synchronized void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+        }
+
+        synchronized long getPercentile(double percentile) {
+            if (count < MIN_SAMPLES) return -1;
+            var sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return Math.max(1, sorted[(int) Math.ceil(percentile * count) - 1]);
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+package de.gtarc.opaca.platform;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms of requests to the platform, by method, route template (e.g. "/invoke/{action}"),
+ * status class, container ID and action name, and the number of requests currently in progress, by method
+ * and first segment of the path (or "other" for unknown paths). Those are recorded by the EventsFilter and can be exported in the
+ * Prometheus text format or as JSON.
+ */
+public class RequestMetrics {
+
+    private static final RequestMetrics INSTANCE = new RequestMetrics();
+
+    /** maximum number of histograms; further containers and actions are counted as "other" */
+    private static final int MAX_SERIES = 1000;
+
+    private static final String OTHER = "other";
+
+    /** upper bounds of the buckets in the Prometheus histograms, in seconds */
+    private static final double[] BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    private static final String DURATION = "opaca_http_request_duration_seconds";
+
+    private static final String IN_FLIGHT = "opaca_http_requests_in_flight";
+
+    /** first segments of the platform's routes; requests in progress to other paths are counted as "other" */
+    private static final Set<String> PREFIXES = Set.of("/agents", "/broadcast", "/config", "/connections",
+            "/containers", "/history", "/info", "/invoke", "/login", "/metrics", "/send", "/stats", "/stream",
+            "/token", "/users");
+
+    @Data
+    public static class Key {
+        final String method;
+        final String route;
+        final String status;
+        final String container;
+        final String action;
+    }
+
+    private final Map<Key, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> inFlight = new ConcurrentHashMap<>();
+
+    private RequestMetrics() {
+    }
+
+    public static RequestMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Count a request as in progress, until calling the returned runnable, by method and first path segment,
+     * if that is one of the platform's routes, so that arbitrary paths do not add new counters.
+     */
+    public Runnable startRequest(String method, String path) {
+        var end = path.indexOf('/', 1);
+        var prefix = end < 0 ? path : path.substring(0, end);
+        if (! PREFIXES.contains(prefix)) {
+            prefix = OTHER;
+        }
+        var counter = inFlight.computeIfAbsent(method + " " + prefix, k -> new AtomicLong());
+        counter.incrementAndGet();
+        return counter::decrementAndGet;
+    }
+
+    /**
+     * Record the duration of a completed request; container and action may be null.
+     */
+    public void record(String method, String route, int status, String container, String action, long micros) {
+        var key = new Key(method, route, (status / 100) + "xx",
+                container == null ? "" : container, action == null ? "" : action);
+        var histogram = histograms.get(key);
+        if (histogram == null) {
+            if (histograms.size() >= MAX_SERIES) {
+                key = new Key(key.method, key.route, key.status, key.container.isEmpty() ? "" : OTHER, key.action.isEmpty() ? "" : OTHER);
+            }
+            histogram = histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+        }
+        histogram.record(micros);
+    }
+
+    /**
+     * Get metrics in the Prometheus text exposition format, with the durations as histograms in seconds.
+     */
+    public String toPrometheus() {
+        var builder = new StringBuilder();
+        builder.append("# HELP ").append(IN_FLIGHT).append(" Number of requests currently being handled.\n");
+        builder.append("# TYPE ").append(IN_FLIGHT).append(" gauge\n");
+        for (var entry : new TreeMap<>(inFlight).entrySet()) {
+            var parts = entry.getKey().split(" ", 2);
+            builder.append(IN_FLIGHT).append("{method=\"").append(escape(parts[0]))
+                    .append("\",path=\"").append(escape(parts[1])).append("\"} ")
+                    .append(entry.getValue().get()).append('\n');
+        }
+
+        builder.append("# HELP ").append(DURATION).append(" Duration of requests handled by the platform.\n");
+        builder.append("# TYPE ").append(DURATION).append(" histogram\n");
+        for (var entry : getSortedHistograms()) {
+            var key = entry.getKey();
+            var snapshot = entry.getValue().getSnapshot();
+            var labels = String.format("method=\"%s\",route=\"%s\",status=\"%s\",container=\"%s\",action=\"%s\"",
+                    escape(key.method), escape(key.route), key.status, escape(key.container), escape(key.action));
+            for (double bucket : BUCKETS) {
+                builder.append(DURATION).append("_bucket{").append(labels).append(",le=\"").append(BigDecimal.valueOf(bucket).stripTrailingZeros().toPlainString()).append("\"} ")
+                        .append(snapshot.getCountAtOrBelow((long) (bucket * 1e6))).append('\n');
+            }
+            builder.append(DURATION).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(snapshot.getCount()).append('\n');
+            builder.append(DURATION).append("_sum{").append(labels).append("} ").append(snapshot.getSum() / 1e6).append('\n');
+            builder.append(DURATION).append("_count{").append(labels).append("} ").append(snapshot.getCount()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get metrics as JSON-friendly map, with count, mean, max and common percentiles in milliseconds.
+     */
+    public Map<String, ?> toJson() {
+        Map<String, Long> requestsInFlight = new TreeMap<>();
+        inFlight.forEach((k, v) -> requestsInFlight.put(k, v.get()));
+        List<Map<String, ?>> durations = new ArrayList<>();
+        for (var entry : getSortedHistograms()) {
+            var key = entry.getKey();
+            var snapshot = entry.getValue().getSnapshot();
+            Map<String, Object> series = new LinkedHashMap<>();
+            series.put("method", key.method);
+            series.put("route", key.route);
+            series.put("status", key.status);
+            series.put("container", key.container);
+            series.put("action", key.action);
+            series.put("count", snapshot.getCount());
+            series.put("meanMs", snapshot.getMean() / 1000);
+            series.put("p50Ms", snapshot.getPercentile(0.5) / 1000.0);
+            series.put("p90Ms", snapshot.getPercentile(0.9) / 1000.0);
+            series.put("p99Ms", snapshot.getPercentile(0.99) / 1000.0);
+            series.put("p999Ms", snapshot.getPercentile(0.999) / 1000.0);
+            series.put("maxMs", snapshot.getMax() / 1000.0);
+            durations.add(series);
+        }
+        return Map.of("inFlight", requestsInFlight, "durations", durations);
+    }
+
+    /**
+     * Reset the latency histograms, but not the requests in progress.
+     */
+    public void clear() {
+        histograms.clear();
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    private List<Map.Entry<Key, LatencyHistogram>> getSortedHistograms() {
+        List<Map.Entry<Key, LatencyHistogram>> entries = new ArrayList<>(histograms.entrySet());
+        entries.sort(Comparator.comparing((Map.Entry<Key, LatencyHistogram> e) -> e.getKey().route)
+                .thenComparing(e -> e.getKey().method)
+                .thenComparing(e -> e.getKey().status)
+                .thenComparing(e -> e.getKey().container)
+                .thenComparing(e -> e.getKey().action));
+        return entries;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
@@ -0,0 +1,226 @@
+package de.gtarc.opaca.platform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import de.gtarc.opaca.model.Action;
+import de.gtarc.opaca.model.AgentContainer;
+import de.gtarc.opaca.model.AgentDescription;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for the results of actions that are declared as cacheable in their action description, e.g. pure
+ * lookups, by agent ID, container ID and parameters. If the same action is provided by several containers
+ * or platforms, the results are only cached if all of them declare the action as cacheable, using the
+ * shortest TTL and smallest size. All results for an action are discarded when a container or platform
+ * providing the action is updated or removed.
+ */
+public class ResultCache {
+
+    /** caching settings by action name (null if not cacheable), for each container ID or platform URL */
+    private final Map<String, Map<String, Action.Caching>> cachingByOwner = new HashMap<>();
+
+    /** effective caching settings by action name, only for cacheable actions */
+    private final Map<String, Action.Caching> caching = new ConcurrentHashMap<>();
+
+    /** cached results by action name */
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    @Getter
+    private final AtomicLong hits = new AtomicLong();
+
+    @Getter
+    private final AtomicLong misses = new AtomicLong();
+
+    /*
+     * UPDATING CACHING SETTINGS
+     */
+
+    /**
+     * Update caching settings for the actions of the given container ID or platform URL, and discard
+     * cached results for all actions provided by that container or platform before and after the update.
+     */
+    public synchronized void update(String owner, Collection<AgentContainer> containers) {
+        Map<String, Action.Caching> actions = new HashMap<>();
+        for (AgentContainer container : containers) {
+            for (AgentDescription agent : container.getAgents()) {
+                for (Action action : agent.getActions()) {
+                    actions.put(action.getName(), action.getCaching());
+                }
+            }
+        }
+        var previous = cachingByOwner.put(owner, actions);
+        invalidate(previous, actions);
+    }
+
+    public synchronized void remove(String owner) {
+        invalidate(cachingByOwner.remove(owner), Map.of());
+    }
+
+    public synchronized void clear() {
+        cachingByOwner.clear();
+        caching.clear();
+        segments.clear();
+    }
+
+    /*
+     * CACHE ACCESS
+     */
+
+    /**
+     * Get the cached results for the given action, or null if the action is not cacheable. Results should
+     * be put into the same segment they were looked up in, so results of calls that were still running when
+     * the cache was invalidated are discarded.
+     */
+    public Segment getSegment(String action) {
+        var actionCaching = caching.get(action);
+        return actionCaching == null ? null : segments.computeIfAbsent(action, a -> new Segment(actionCaching));
+    }
+
+    /**
+     * Get a key for the invocation, with a hash of the parameters that does not depend on the order of keys.
+     * The forward flag is part of the key, as results from connected platforms must not be returned for
+     * calls that should be handled locally, and vice versa.
+     */
+    public static String makeKey(String agentId, String containerId, boolean forward, Map<String, JsonNode> parameters) {
+        var canonical = new StringBuilder();
+        writeCanonical(new TreeMap<>(parameters), canonical);
+        try {
+            var hash = MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            return agentId + "/" + containerId + "/" + forward + "/" + HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "hits", hits.get(),
+                "misses", misses.get(),
+                "entries", segments.values().stream().mapToInt(Segment::size).sum()
+        );
+    }
+
+    /**
+     * Cached results for a single action, evicting the least recently used result when full,
+     * and expired results when those are accessed.
+     */
+    public class Segment {
+
+        private final long ttlMillis;
+        private final Map<String, Entry> entries;
+
+        private Segment(Action.Caching caching) {
+            this.ttlMillis = caching.getTtlSeconds() * 1000L;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > caching.getMaxEntries();
+                }
+            };
+        }
+
+        public synchronized JsonNode get(String key) {
+            var entry = entries.get(key);
+            if (entry != null && entry.expires < System.currentTimeMillis()) {
+                entries.remove(key);
+                entry = null;
+            }
+            (entry != null ? hits : misses).incrementAndGet();
+            return entry != null ? entry.result.deepCopy() : null;
+        }
+
+        public synchronized void put(String key, JsonNode result) {
+            entries.put(key, new Entry(result.deepCopy(), System.currentTimeMillis() + ttlMillis));
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    private static class Entry {
+        final JsonNode result;
+        final long expires;
+
+        Entry(JsonNode result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    /**
+     * Recalculate caching settings and drop cached results for all the given actions.
+     */
+    private void invalidate(Map<String, Action.Caching> before, Map<String, Action.Caching> after) {
+        Set<String> actions = new HashSet<>(after.keySet());
+        if (before != null) actions.addAll(before.keySet());
+        for (String action : actions) {
+            var effective = getEffectiveCaching(action);
+            if (effective != null) {
+                caching.put(action, effective);
+            } else {
+                caching.remove(action);
+            }
+            segments.remove(action);
+        }
+    }
+
+    /**
+     * Get strictest caching settings of all containers and platforms providing the action, or null if any
+     * of those does not declare the action as cacheable (or none provides it).
+     */
+    private Action.Caching getEffectiveCaching(String action) {
+        Action.Caching effective = null;
+        for (Map<String, Action.Caching> actions : cachingByOwner.values()) {
+            if (! actions.containsKey(action)) continue;
+            var c = actions.get(action);
+            if (c == null || c.getTtlSeconds() <= 0 || c.getMaxEntries() <= 0) return null;
+            effective = effective == null ? c : new Action.Caching(
+                    Math.min(effective.getTtlSeconds(), c.getTtlSeconds()),
+                    Math.min(effective.getMaxEntries(), c.getMaxEntries()));
+        }
+        return effective;
+    }
+
+    /**
+     * Write JSON with keys of all objects sorted, so that equal parameters always yield the same string.
+     */
+    private static void writeCanonical(Map<String, JsonNode> parameters, StringBuilder out) {
+        out.append('{');
+        for (var entry : parameters.entrySet()) {
+            out.append(TextNode.valueOf(entry.getKey())).append(':');
+            writeCanonical(entry.getValue(), out);
+            out.append(',');
+        }
+        out.append('}');
+    }
+
+    private static void writeCanonical(JsonNode node, StringBuilder out) {
+        if (node != null && node.isObject()) {
+            Map<String, JsonNode> fields = new TreeMap<>();
+            node.fields().forEachRemaining(e -> fields.put(e.getKey(), e.getValue()));
+            writeCanonical(fields, out);
+        } else if (node != null && node.isArray()) {
+            out.append('[');
+            for (JsonNode item : node) {
+                writeCanonical(item, out);
+                out.append(',');
+            }
+            out.append(']');
+        } else {
+            out.append(node);
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package de.gtarc.opaca.platform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.gtarc.opaca.util.RestHelper;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads JSON Schema type definitions referenced by URL (see "definitionsByUrl" in the container image)
+ * in the background, so that validating action arguments never has to wait for a remote host. If a
+ * cache directory is given, a copy of each definition is stored there, so that those do not have to
+ * be fetched again after the platform is restarted.
+ */
+@Log
+public class SchemaLoader {
+
+    /** timeout for connecting to and for reading from the host of a definition, in milliseconds */
+    private static final int TIMEOUT_MS = 10000;
+
+    /** time in seconds after a failed attempt during which the failure is returned instead of trying again */
+    private static final long RETRY_DELAY_SEC = 60;
+
+    /** local directory for caching loaded definitions; may be null for no caching */
+    private final Path cacheDirectory;
+
+    /** definitions that have been loaded or are being loaded, by URL */
+    private final Map<String, CompletableFuture<JsonNode>> definitions = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "schema-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SchemaLoader(String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory == null || cacheDirectory.isBlank() ? null : Path.of(cacheDirectory);
+    }
+
+    /**
+     * Get the definition at the given URL, either from memory, from the cache directory, or from the URL
+     * itself. This never blocks; the definition is loaded in the background. If loading fails, calls within
+     * the next minute get the same failed future, and the first call after that will try again.
+     */
+    public CompletableFuture<JsonNode> load(String url) {
+        return definitions.computeIfAbsent(url, u -> {
+            var future = CompletableFuture.supplyAsync(() -> fetch(u), executor);
+            future.whenComplete((res, err) -> {
+                if (err != null) {
+                    log.severe("Could not load schema from " + u + ": " + err.getMessage());
+                    CompletableFuture.delayedExecutor(RETRY_DELAY_SEC, TimeUnit.SECONDS)
+                            .execute(() -> definitions.remove(u, future));
+                }
+            });
+            return future;
+        });
+    }
+
+    private JsonNode fetch(String url) {
+        try {
+            var cacheFile = getCacheFile(url);
+            if (cacheFile != null && Files.exists(cacheFile)) {
+                log.info("Loading schema for " + url + " from " + cacheFile);
+                return RestHelper.readJson(Files.readString(cacheFile));
+            }
+            String content;
+            var connection = URI.create(url).toURL().openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            try (InputStream stream = connection.getInputStream()) {
+                content = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            var definition = RestHelper.readJson(content);
+            log.info("Loaded schema from " + url);
+            if (cacheFile != null) {
+                // write to temp file first, so other platforms sharing the directory never read partial files
+                Files.createDirectories(cacheDirectory);
+                var tempFile = Files.createTempFile(cacheDirectory, "schema", ".tmp");
+                Files.writeString(tempFile, content);
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return definition;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path getCacheFile(String url) {
+        if (cacheDirectory == null) return null;
+        try {
+            var hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            return cacheDirectory.resolve(HexFormat.of().formatHex(hash) + ".json");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
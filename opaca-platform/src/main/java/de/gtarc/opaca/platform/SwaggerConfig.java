@@ -62,7 +62,7 @@ public class SwaggerConfig {
     public GroupedOpenApi otherApi() {
         return GroupedOpenApi.builder()
                 .group("Other")
-                .pathsToMatch("/users/**", "/authentication/**", "/info", "/history", "/config")
+                .pathsToMatch("/users/**", "/authentication/**", "/info", "/history/**", "/config", "/stats", "/metrics")
                 .build();
     }
             
@@ -0,0 +1,56 @@
+package de.gtarc.opaca.platform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Map;
+
+/**
+ * Validation plan for the arguments of a single action, compiled once from the action's parameter
+ * descriptions by the ArgumentValidator. Validating arguments against the plan does not have to
+ * resolve any type names or schemas and does not create any intermediate objects.
+ */
+public class ValidationPlan {
+
+    /**
+     * Check for a single argument value, e.g. for a primitive type, array, or JSON Schema.
+     */
+    @FunctionalInterface
+    public interface TypeCheck {
+        boolean isValid(JsonNode node);
+    }
+
+    /** names of all parameters of the action */
+    private final String[] names;
+
+    /** check for the type of each of the above parameters */
+    private final TypeCheck[] checks;
+
+    /** whether each of the above parameters is required */
+    private final boolean[] required;
+
+    public ValidationPlan(String[] names, TypeCheck[] checks, boolean[] required) {
+        this.names = names;
+        this.checks = checks;
+        this.required = required;
+    }
+
+    /**
+     * Check that all required arguments are present, that there are no redundant arguments,
+     * and that all argument values match the respective parameter types.
+     */
+    public boolean isValid(Map<String, JsonNode> arguments) {
+        int found = 0;
+        for (int i = 0; i < names.length; i++) {
+            JsonNode argument = arguments.get(names[i]);
+            if (argument == null) {
+                if (required[i]) return false;
+            } else {
+                if (! checks[i].isValid(argument)) return false;
+                found++;
+            }
+        }
+        // each found argument is a distinct key, so any others are redundant
+        return found == arguments.size();
+    }
+
+}
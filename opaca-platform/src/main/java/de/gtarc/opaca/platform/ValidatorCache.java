@@ -0,0 +1,97 @@
+package de.gtarc.opaca.platform;
+
+import de.gtarc.opaca.model.AgentContainer;
+import de.gtarc.opaca.model.RuntimePlatform;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of Argument Validators for the containers of this platform and of connected platforms.
+ * Compiling the JSON Schema definitions of an image is expensive, so each validator is created
+ * only once (when the container is added or the platform is updated) and shared by all containers
+ * with the same definitions, e.g. those started from the same image.
+ */
+public class ValidatorCache {
+
+    /** validators by the type definitions they were created from */
+    private final Map<List<Map<String, ?>>, ArgumentValidator> validatorsByImage = new HashMap<>();
+
+    /** validators by platform URL and container ID; inner maps are replaced, not modified */
+    private final Map<String, Map<String, ArgumentValidator>> validatorsByPlatform = new ConcurrentHashMap<>();
+
+    /** for loading definitions-by-URL in the background */
+    private final SchemaLoader schemaLoader;
+
+    public ValidatorCache(SchemaLoader schemaLoader) {
+        this.schemaLoader = schemaLoader;
+    }
+
+    /**
+     * Get the validator for the given container of the given platform, or null if not known.
+     */
+    public ArgumentValidator get(String platformUrl, String containerId) {
+        var validators = validatorsByPlatform.get(platformUrl);
+        return validators == null ? null : validators.get(containerId);
+    }
+
+    public synchronized void putContainer(String platformUrl, AgentContainer container) {
+        var validators = new HashMap<>(validatorsByPlatform.getOrDefault(platformUrl, Map.of()));
+        validators.put(container.getContainerId(), getOrCreate(container));
+        validatorsByPlatform.put(platformUrl, validators);
+        prune();
+    }
+
+    public synchronized void putPlatform(String platformUrl, RuntimePlatform platform) {
+        var validators = new HashMap<String, ArgumentValidator>();
+        for (AgentContainer container : platform.getContainers()) {
+            validators.put(container.getContainerId(), getOrCreate(container));
+        }
+        validatorsByPlatform.put(platformUrl, validators);
+        prune();
+    }
+
+    public synchronized void removeContainer(String platformUrl, String containerId) {
+        var validators = new HashMap<>(validatorsByPlatform.getOrDefault(platformUrl, Map.of()));
+        validators.remove(containerId);
+        validatorsByPlatform.put(platformUrl, validators);
+        prune();
+    }
+
+    public synchronized void removePlatform(String platformUrl) {
+        validatorsByPlatform.remove(platformUrl);
+        prune();
+    }
+
+    public synchronized void clear() {
+        validatorsByPlatform.clear();
+        validatorsByImage.clear();
+    }
+
+    /*
+     * HELPER METHODS
+     */
+
+    /**
+     * Get or create the validator for the container's image and compile the validation plans
+     * for the container's actions.
+     */
+    private ArgumentValidator getOrCreate(AgentContainer container) {
+        var image = container.getImage();
+        var key = List.<Map<String, ?>>of(image.getDefinitions(), image.getDefinitionsByUrl());
+        var validator = validatorsByImage.computeIfAbsent(key, k -> new ArgumentValidator(image, schemaLoader));
+        validator.compile(container);
+        return validator;
+    }
+
+    /**
+     * Drop validators no longer used by any container, e.g. after the last container of an image
+     * was removed or a connected platform was updated.
+     */
+    private void prune() {
+        Set<ArgumentValidator> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        validatorsByPlatform.values().forEach(validators -> used.addAll(validators.values()));
+        validatorsByImage.values().removeIf(v -> ! used.contains(v));
+    }
+
+}
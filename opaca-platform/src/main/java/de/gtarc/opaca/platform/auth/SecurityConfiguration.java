@@ -82,7 +82,7 @@ public class SecurityConfiguration {
                             // the route is requested with (if none given, all methods are concerned)
                             .requestMatchers(HttpMethod.GET, "/users").hasRole(Role.ADMIN.name())
                             .requestMatchers(HttpMethod.GET, "/info", "/agents/**", "/containers/**", "/users/**").hasRole(Role.GUEST.name())
-                            .requestMatchers(HttpMethod.GET, "/history", "/connections", "/stream/**").hasRole(Role.USER.name())
+                            .requestMatchers(HttpMethod.GET, "/history/**", "/connections", "/stream/**").hasRole(Role.USER.name())
                             .requestMatchers(HttpMethod.POST, "/send/**", "/invoke/**", "/broadcast/**", "/stream/**").hasRole(Role.USER.name())
                             .requestMatchers(HttpMethod.POST, "/containers/**").hasRole(Role.CONTRIBUTOR.name())
                             .requestMatchers(HttpMethod.DELETE, "/containers/**").hasRole(Role.CONTRIBUTOR.name())
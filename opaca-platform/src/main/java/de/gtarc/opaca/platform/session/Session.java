@@ -95,7 +95,8 @@ public class Session {
                 this.data.dockerContainers.putAll(lastdata.dockerContainers);
                 this.data.usedPorts.addAll(lastdata.usedPorts);
                 this.data.users.putAll(lastdata.users);
-    
+                implementation.reloadSessionData();
+
             } catch (IOException e) {
                 log.severe("Could not load Session data: " + e);
             }
@@ -149,6 +150,7 @@ public class Session {
         log.info("Restarting Last Containers...");
         List<PostAgentContainer> startedContainers = List.copyOf(data.startContainerRequests.values());
         data.reset();
+        implementation.reloadSessionData();
         for (PostAgentContainer postContainer : startedContainers) {
             try {
                 implementation.addContainer(postContainer);
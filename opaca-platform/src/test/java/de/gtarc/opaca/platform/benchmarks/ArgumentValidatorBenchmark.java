@@ -0,0 +1,108 @@
+package de.gtarc.opaca.platform.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.gtarc.opaca.model.AgentContainerImage;
+import de.gtarc.opaca.model.Parameter;
+import de.gtarc.opaca.platform.ArgumentValidator;
+import de.gtarc.opaca.platform.SchemaLoader;
+import de.gtarc.opaca.util.RestHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Time for validating action arguments with a large array of arrays, using the compiled validation plans,
+ * compared to the validation as it was before, dispatching on the type names for each value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArgumentValidatorBenchmark {
+
+    private static final Map<String, Parameter> PARAMETERS = Map.of(
+            "x", new Parameter("integer"),
+            "name", new Parameter("string", false),
+            "matrix", new Parameter("array", true, new Parameter.ArrayItems("array", new Parameter.ArrayItems("number", null)))
+    );
+
+    /** number of rows and columns of the matrix argument */
+    @Param({"1", "100", "1000"})
+    public int size;
+
+    private ArgumentValidator validator;
+
+    private Map<String, JsonNode> arguments;
+
+    @Setup
+    public void setUp() {
+        var image = new AgentContainerImage();
+        image.setImageName("benchmark-image");
+        validator = new ArgumentValidator(image, new SchemaLoader(null));
+        var row = IntStream.range(0, size).mapToObj(i -> i * 0.5).collect(Collectors.toList());
+        var matrix = IntStream.range(0, size).mapToObj(i -> row).collect(Collectors.toList());
+        arguments = new HashMap<>();
+        arguments.put("x", RestHelper.mapper.valueToTree(42));
+        arguments.put("name", RestHelper.mapper.valueToTree("benchmark"));
+        arguments.put("matrix", RestHelper.mapper.valueToTree(matrix));
+    }
+
+    @Benchmark
+    public boolean plan() {
+        return validator.isArgsValid(PARAMETERS, arguments);
+    }
+
+    @Benchmark
+    public boolean previous() {
+        return PreviousValidator.isArgsValid(PARAMETERS, arguments);
+    }
+
+    /**
+     * The argument validation as it was before, for comparison (without object types).
+     */
+    static class PreviousValidator {
+
+        static boolean isArgsValid(Map<String, Parameter> parameters, Map<String, JsonNode> arguments) {
+            if (parameters.entrySet().stream()
+                    .anyMatch(entry -> entry.getValue().getRequired() && ! arguments.containsKey(entry.getKey()))) return false;
+            if (arguments.keySet().stream().anyMatch(name -> ! parameters.containsKey(name))) return false;
+
+            for (String name : arguments.keySet()) {
+                var argument = arguments.get(name);
+                var type = parameters.get(name).getType();
+                var items = parameters.get(name).getItems();
+                if (! isArgumentValid(argument, type, items)) return false;
+            }
+            return true;
+        }
+
+        private static boolean isArgumentValid(JsonNode node, String type, Parameter.ArrayItems items) {
+            return switch (type) {
+                case "integer" -> node.isInt();
+                case "number" -> node.isNumber();
+                case "boolean" -> node.isBoolean();
+                case "string" -> node.isTextual();
+                case "null" -> node.isNull();
+                case "array" -> isValidList(node, items);
+                default -> true;
+            };
+        }
+
+        private static boolean isValidList(JsonNode node, Parameter.ArrayItems items) {
+            if (node.isArray() && items != null) {
+                for (JsonNode child : node) {
+                    if (! isArgumentValid(child, items.getType(), items.getItems())) return false;
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
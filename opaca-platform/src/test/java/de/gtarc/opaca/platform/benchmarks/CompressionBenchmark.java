@@ -0,0 +1,62 @@
+package de.gtarc.opaca.platform.benchmarks;
+
+import de.gtarc.opaca.util.RestHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Time for compressing the response of GET /info with gzip and decompressing it again, depending on the
+ * number of containers on the platform. Compression only pays off if that takes less time than sending the
+ * bytes saved, which over the loopback device it never does; the sizes of the response with and without
+ * compression are printed in the setup, for finding the minimum size for which it pays off on slower links.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    /** number of containers on the platform */
+    @Param({"0", "1", "2", "5", "20", "200"})
+    public int containers;
+
+    private byte[] raw;
+
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() throws IOException {
+        raw = RestHelper.mapper.writeValueAsBytes(RestHelperBenchmark.makePlatform(containers));
+        compressed = compress(raw);
+        System.out.printf("%n%d containers: %d bytes, compressed: %d bytes%n", containers, raw.length, compressed.length);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return compress(raw);
+    }
+
+    @Benchmark
+    public byte[] decompress() throws IOException {
+        try (var gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    private static byte[] compress(byte[] bytes) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,116 @@
+package de.gtarc.opaca.platform.benchmarks;
+
+import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.util.EventHistory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of adding events to the history from many threads, with one thread reading all events in the
+ * meantime (as e.g. for GET /history), compared to the synchronized list used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventHistoryBenchmark {
+
+    @Param({"50", "10000"})
+    public int maxSize;
+
+    @Param({"history", "synchronizedList"})
+    public String implementation;
+
+    private EventHistory history;
+
+    private SynchronizedListHistory list;
+
+    @Setup
+    public void setUp() {
+        EventHistory.maxSize = maxSize;
+        history = EventHistory.getInstance();
+        list = new SynchronizedListHistory(maxSize);
+    }
+
+    /**
+     * Events as added for a request, i.e. a call, a forward and a result event, with a few different routes.
+     */
+    @State(Scope.Thread)
+    public static class ThreadEvents {
+
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        final Event[] events = new Event[3 * 1024];
+
+        int next = 0;
+
+        @Setup
+        public void setUp() {
+            var thread = THREADS.incrementAndGet();
+            for (int i = 0; i < events.length; i += 3) {
+                var call = new Event(Event.EventType.CALL, "POST /invoke/Action" + (i % 20), "sender-" + thread, null, null, null);
+                call.setCorrelationId(call.getId());
+                events[i] = call;
+                events[i + 1] = new Event(Event.EventType.FORWARD, "POST /invoke/Action" + (i % 20), null, "container", null, call.getId(), call.getId());
+                events[i + 2] = new Event(Event.EventType.SUCCESS, null, null, null, null, call.getId(), call.getId());
+            }
+        }
+
+        Event next() {
+            var event = events[next];
+            next = (next + 1) % events.length;
+            return event;
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(7)
+    public void add(ThreadEvents events) {
+        if ("history".equals(implementation)) {
+            history.addEvent(events.next());
+        } else {
+            list.addEvent(events.next());
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public List<Event> get() {
+        return "history".equals(implementation) ? history.getEvents() : list.getEvents();
+    }
+
+    /**
+     * The event history as it was before, for comparison.
+     */
+    static class SynchronizedListHistory {
+
+        private final int maxSize;
+
+        private final List<Event> events = Collections.synchronizedList(new LinkedList<>());
+
+        SynchronizedListHistory(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        void addEvent(Event entry) {
+            events.add(entry);
+            while (maxSize >= 0 && events.size() > maxSize) {
+                events.remove(0);
+            }
+        }
+
+        List<Event> getEvents() {
+            return List.copyOf(events);
+        }
+    }
+
+}
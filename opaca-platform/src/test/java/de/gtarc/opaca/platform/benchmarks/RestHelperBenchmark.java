@@ -0,0 +1,113 @@
+package de.gtarc.opaca.platform.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import de.gtarc.opaca.model.*;
+import de.gtarc.opaca.util.DataFormat;
+import de.gtarc.opaca.util.RestHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for parsing the response of GET /info and GET /containers with the pre-built, typed readers used by
+ * the RestHelper, compared to how those were parsed before: from a string, and in case of lists into maps
+ * that then had to be converted to the actual type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RestHelperBenchmark {
+
+    private static final TypeReference<List<AgentContainer>> CONTAINER_LIST = new TypeReference<>() {};
+
+    /** number of containers on the platform, each with a few agents and actions */
+    @Param({"10", "200"})
+    public int containers;
+
+    private byte[] platformJson;
+
+    private byte[] containersJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        var platform = makePlatform(containers);
+        platformJson = RestHelper.mapper.writeValueAsBytes(platform);
+        containersJson = RestHelper.mapper.writeValueAsBytes(platform.getContainers());
+    }
+
+    @Benchmark
+    public RuntimePlatform platformReader() throws IOException {
+        return DataFormat.JSON.getReader(RestHelper.mapper.constructType(RuntimePlatform.class)).readValue(platformJson);
+    }
+
+    @Benchmark
+    public RuntimePlatform platformPrevious() throws IOException {
+        return RestHelper.mapper.readValue(new String(platformJson, StandardCharsets.UTF_8), RuntimePlatform.class);
+    }
+
+    @Benchmark
+    public List<AgentContainer> containersReader() throws IOException {
+        return DataFormat.JSON.getReader(RestHelper.mapper.getTypeFactory().constructType(CONTAINER_LIST)).readValue(containersJson);
+    }
+
+    @Benchmark
+    public List<AgentContainer> containersPrevious() throws IOException {
+        var list = RestHelper.mapper.readValue(new String(containersJson, StandardCharsets.UTF_8), List.class);
+        return RestHelper.mapper.convertValue(list, CONTAINER_LIST);
+    }
+
+    static RuntimePlatform makePlatform(int containers) throws IOException {
+        var definition = RestHelper.readJson("{\"type\": \"object\", \"properties\": {" +
+                "\"x\": {\"type\": \"integer\"}, \"y\": {\"type\": \"integer\"}, \"label\": {\"type\": \"string\"}}, " +
+                "\"required\": [\"x\", \"y\"]}");
+        List<AgentContainer> list = new ArrayList<>();
+        for (int c = 0; c < containers; c++) {
+            var image = new AgentContainerImage();
+            image.setImageName("registry.example.org/agents/container-" + c + ":latest");
+            image.setName("Container " + c);
+            image.setDescription("Sample container number " + c + " for the benchmark");
+            image.setDefinitions(Map.of("Point", definition, "Label", definition));
+
+            List<AgentDescription> agents = new ArrayList<>();
+            for (int a = 0; a < 3; a++) {
+                List<Action> actions = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    var action = new Action();
+                    action.setName("Action" + i);
+                    action.setDescription("Does something with the given point and number");
+                    action.setParameters(Map.of("point", new Parameter("Point"), "n", new Parameter("integer"),
+                            "values", new Parameter("array", false, new Parameter.ArrayItems("number", null))));
+                    action.setResult(new Parameter("string"));
+                    actions.add(action);
+                }
+                var agent = new AgentDescription();
+                agent.setAgentId("agent-" + c + "-" + a);
+                agent.setAgentType("SampleAgent");
+                agent.setActions(actions);
+                agents.add(agent);
+            }
+
+            var container = new AgentContainer();
+            container.setContainerId("container-" + c);
+            container.setImage(image);
+            container.setAgents(agents);
+            container.setOwner("admin");
+            container.setRunningSince(ZonedDateTime.now());
+            list.add(container);
+        }
+        var platform = new RuntimePlatform();
+        platform.setBaseUrl("http://platform.example.org:8000");
+        platform.setContainers(list);
+        return platform;
+    }
+
+}
@@ -0,0 +1,136 @@
+package de.gtarc.opaca.platform.tests;
+
+import de.gtarc.opaca.platform.AccessLogFilter;
+import de.gtarc.opaca.util.AccessLog;
+import de.gtarc.opaca.util.RestHelper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Tests for the access log's sampling and payload truncation and for the filter adding entries for incoming
+ * requests, capturing the log output.
+ */
+public class AccessLogTests {
+
+    private final Logger logger = Logger.getLogger(AccessLog.LOGGER_NAME);
+
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            lines.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private double sampleRate;
+    private int maxPayloadLength;
+
+    @Before
+    public void setUp() {
+        sampleRate = AccessLog.sampleRate;
+        maxPayloadLength = AccessLog.maxPayloadLength;
+        logger.addHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeHandler(handler);
+        logger.setLevel(null);
+        AccessLog.sampleRate = sampleRate;
+        AccessLog.maxPayloadLength = maxPayloadLength;
+    }
+
+    @Test
+    public void testEntry() throws Exception {
+        AccessLog.maxPayloadLength = 10;
+        AccessLog.log(makeEntry(200, "{\"parameter\": \"some long value\"}"));
+        var entry = RestHelper.readJson(lines.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("POST", entry.get("method").asText());
+        Assert.assertEquals("/invoke/Add", entry.get("route").asText());
+        Assert.assertEquals(200, entry.get("status").asInt());
+        Assert.assertEquals("{\"paramete...", entry.get("payload").asText());
+        Assert.assertFalse(entry.has("error"));
+    }
+
+    @Test
+    public void testSamplingKeepsErrors() throws Exception {
+        AccessLog.sampleRate = 0.0;
+        for (int status : List.of(200, 201, 404, 500, -1)) {
+            AccessLog.log(makeEntry(status, null));
+        }
+        for (int status : List.of(404, 500, -1)) {
+            Assert.assertEquals(status, RestHelper.readJson(lines.poll(5, TimeUnit.SECONDS)).get("status").asInt());
+        }
+        Assert.assertNull(lines.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        logger.setLevel(Level.OFF);
+        Assert.assertFalse(AccessLog.isEnabled());
+        AccessLog.log(makeEntry(500, null));
+        Assert.assertNull(lines.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFilterCountsWriter() throws Exception {
+        // e.g. the error message for requests that are not authenticated
+        var body = new StringWriter();
+        var request = proxy(HttpServletRequest.class, Map.of("getMethod", "GET", "getRequestURI", "/info", "getContentLengthLong", -1L));
+        var response = proxy(HttpServletResponse.class, Map.of("getStatus", 401, "getCharacterEncoding", "UTF-8",
+                "getWriter", new PrintWriter(body)));
+        new AccessLogFilter().doFilter(request, response,
+                (req, res) -> ((HttpServletResponse) res).getWriter().write("Unauthorized: Übung"));
+        var entry = RestHelper.readJson(lines.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(401, entry.get("status").asInt());
+        Assert.assertEquals("Unauthorized: Übung", body.toString());
+        Assert.assertEquals(20, entry.get("responseBytes").asInt());
+    }
+
+    /**
+     * Proxy for a servlet interface, returning the given values by method name, and defaults for all others.
+     */
+    private static <T> T proxy(Class<T> type, Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[] {type}, (proxy, method, args) -> {
+            if (values.containsKey(method.getName())) return values.get(method.getName());
+            var returnType = method.getReturnType();
+            if (returnType == boolean.class) return false;
+            if (returnType == int.class) return 0;
+            if (returnType == long.class) return 0L;
+            return null;
+        }));
+    }
+
+    private AccessLog.Entry makeEntry(int status, String payload) {
+        return new AccessLog.Entry("out", "POST", "/invoke/Add", "http://localhost:8082", status, 1.5, 10, 2,
+                payload == null ? null : payload.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+}
@@ -0,0 +1,129 @@
+package de.gtarc.opaca.platform.tests;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.gtarc.opaca.model.AgentContainerImage;
+import de.gtarc.opaca.model.Parameter;
+import de.gtarc.opaca.platform.ArgumentValidator;
+import de.gtarc.opaca.platform.SchemaLoader;
+import de.gtarc.opaca.util.RestHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests for the Argument Validator and its compiled validation plans. Other than the tests in
+ * the other modules, those do not require a running Runtime Platform or Agent Container.
+ */
+public class ArgumentValidatorTests {
+
+    private static final Map<String, Parameter> PARAMETERS = Map.of(
+            "x", new Parameter("integer"),
+            "name", new Parameter("string", false),
+            "matrix", new Parameter("array", true, new Parameter.ArrayItems("array", new Parameter.ArrayItems("number", null))),
+            "point", new Parameter("Point", false)
+    );
+
+    private static final String POINT_SCHEMA = "{\"type\": \"object\", " +
+            "\"properties\": {\"x\": {\"type\": \"integer\"}, \"y\": {\"type\": \"integer\"}}, " +
+            "\"required\": [\"x\", \"y\"]}";
+
+    private final ArgumentValidator validator = new ArgumentValidator(makeImage(), new SchemaLoader(null));
+
+    @Test
+    public void testValidArguments() throws Exception {
+        Assert.assertTrue(isValid(Map.of("x", 1, "matrix", List.of(List.of(1, 2.5), List.of()))));
+        Assert.assertTrue(isValid(Map.of("x", 1, "matrix", List.of(), "name", "foo", "point", Map.of("x", 1, "y", 2))));
+    }
+
+    @Test
+    public void testMissingArguments() throws Exception {
+        Assert.assertFalse(isValid(Map.of("x", 1)));
+        Assert.assertFalse(isValid(Map.of("matrix", List.of(), "name", "foo")));
+    }
+
+    @Test
+    public void testRedundantArguments() throws Exception {
+        Assert.assertFalse(isValid(Map.of("x", 1, "matrix", List.of(), "other", 42)));
+    }
+
+    @Test
+    public void testInvalidTypes() throws Exception {
+        Assert.assertFalse(isValid(Map.of("x", "1", "matrix", List.of())));
+        Assert.assertFalse(isValid(Map.of("x", 1.5, "matrix", List.of())));
+        Assert.assertFalse(isValid(Map.of("x", 1, "matrix", List.of(1, 2))));
+        Assert.assertFalse(isValid(Map.of("x", 1, "matrix", List.of(List.of("a")))));
+        Assert.assertFalse(isValid(Map.of("x", 1, "matrix", List.of(), "point", Map.of("x", "1", "y", 2))));
+    }
+
+    @Test
+    public void testLargeArrays() throws Exception {
+        var row = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        var matrix = IntStream.range(0, 1000).mapToObj(i -> row).collect(Collectors.toList());
+        Assert.assertTrue(isValid(Map.of("x", 1, "matrix", matrix)));
+
+        var invalidRow = IntStream.range(0, 1000).mapToObj(i -> i == 999 ? "x" : i).collect(Collectors.toList());
+        var invalidMatrix = IntStream.range(0, 1000).mapToObj(i -> i == 999 ? invalidRow : row).collect(Collectors.toList());
+        Assert.assertFalse(isValid(Map.of("x", 1, "matrix", invalidMatrix)));
+    }
+
+    @Test
+    public void testPlanIsReused() {
+        Assert.assertSame(validator.getPlan(PARAMETERS), validator.getPlan(PARAMETERS));
+    }
+
+    @Test
+    public void testDefinitionsByUrl() throws Exception {
+        var schemaFile = Files.createTempFile("point", ".json");
+        var cacheDir = Files.createTempDirectory("schema-cache");
+        Files.writeString(schemaFile, POINT_SCHEMA);
+
+        var image = new AgentContainerImage();
+        image.setImageName("test-image");
+        image.setDefinitionsByUrl(Map.of("Point", schemaFile.toUri().toString()));
+        var urlValidator = new ArgumentValidator(image, new SchemaLoader(cacheDir.toString()));
+        urlValidator.getPendingDefinitions().get(10, TimeUnit.SECONDS);
+
+        Assert.assertTrue(isValid(urlValidator, Map.of("x", 1, "matrix", List.of(), "point", Map.of("x", 1, "y", 2))));
+        Assert.assertFalse(isValid(urlValidator, Map.of("x", 1, "matrix", List.of(), "point", Map.of("x", "1", "y", 2))));
+
+        // definition has been stored in the cache directory and is loaded from there after "restart"
+        try (var files = Files.list(cacheDir)) {
+            Assert.assertEquals(1, files.count());
+        }
+        Files.delete(schemaFile);
+        var restartedValidator = new ArgumentValidator(image, new SchemaLoader(cacheDir.toString()));
+        restartedValidator.getPendingDefinitions().get(10, TimeUnit.SECONDS);
+        Assert.assertFalse(isValid(restartedValidator, Map.of("x", 1, "matrix", List.of(), "point", Map.of("x", "1", "y", 2))));
+    }
+
+    private boolean isValid(Map<String, Object> arguments) throws Exception {
+        return isValid(validator, arguments);
+    }
+
+    private boolean isValid(ArgumentValidator validator, Map<String, Object> arguments) throws Exception {
+        Map<String, JsonNode> jsonArguments = new HashMap<>();
+        for (var entry : arguments.entrySet()) {
+            jsonArguments.put(entry.getKey(), RestHelper.mapper.valueToTree(entry.getValue()));
+        }
+        return validator.isArgsValid(PARAMETERS, jsonArguments);
+    }
+
+    private static AgentContainerImage makeImage() {
+        var image = new AgentContainerImage();
+        image.setImageName("test-image");
+        try {
+            image.setDefinitions(Map.of("Point", RestHelper.readJson(POINT_SCHEMA)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return image;
+    }
+
+}
@@ -0,0 +1,116 @@
+package de.gtarc.opaca.platform.tests;
+
+import de.gtarc.opaca.model.ErrorResponse;
+import de.gtarc.opaca.platform.CircuitBreaker;
+import de.gtarc.opaca.platform.CircuitBreaker.State;
+import de.gtarc.opaca.util.ApiProxy;
+import de.gtarc.opaca.util.RestHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tests for the circuit breaker's state transitions; those do not make any actual requests.
+ */
+public class CircuitBreakerTests {
+
+    private final ApiProxy client = new ApiProxy("http://container", null, null);
+
+    @Test
+    public void testOpenAfterFailures() {
+        var breaker = new CircuitBreaker(3, 60000);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertThrows(ConnectException.class, () -> RestHelper.await(breaker.call(client, c -> fail())));
+        }
+        Assert.assertEquals(State.OPEN, getState(breaker));
+        Assert.assertFalse(breaker.isAvailable(client.baseUrl));
+        // further requests are rejected without making the call
+        Assert.assertThrows(CircuitBreaker.CircuitOpenException.class, () -> RestHelper.await(breaker.call(client, c -> succeed())));
+        Assert.assertEquals(1, breaker.getStats().get(client.baseUrl).getRejected());
+    }
+
+    @Test
+    public void testHalfOpenAfterDelay() throws Exception {
+        var breaker = new CircuitBreaker(1, 50);
+        Assert.assertThrows(ConnectException.class, () -> RestHelper.await(breaker.call(client, c -> fail())));
+        Assert.assertEquals(State.OPEN, getState(breaker));
+        Thread.sleep(100);
+        Assert.assertTrue(breaker.isAvailable(client.baseUrl));
+
+        // only a single trial request is let through; if it fails, the circuit is opened again
+        var trial = new CompletableFuture<String>();
+        var result = breaker.call(client, c -> trial);
+        Assert.assertEquals(State.HALF_OPEN, getState(breaker));
+        Assert.assertThrows(CircuitBreaker.CircuitOpenException.class, () -> RestHelper.await(breaker.call(client, c -> succeed())));
+        trial.completeExceptionally(new ConnectException("failed"));
+        Assert.assertThrows(ConnectException.class, () -> RestHelper.await(result));
+        Assert.assertEquals(State.OPEN, getState(breaker));
+
+        // if it succeeds, the circuit is closed
+        Thread.sleep(100);
+        Assert.assertEquals("ok", breaker.call(client, c -> succeed()).get());
+        Assert.assertEquals(State.CLOSED, getState(breaker));
+        Assert.assertEquals(5, breaker.getStats().get(client.baseUrl).getTransitions());
+    }
+
+    @Test
+    public void testCancelledRequestsDoNotCount() throws Exception {
+        var breaker = new CircuitBreaker(3, 50);
+        Assert.assertThrows(ConnectException.class, () -> RestHelper.await(breaker.call(client, c -> fail())));
+        Assert.assertThrows(ConnectException.class, () -> RestHelper.await(breaker.call(client, c -> fail())));
+
+        // target hangs, and requests to it are cancelled repeatedly, e.g. after the broadcast timeout
+        for (int i = 0; i < 5; i++) {
+            var hanging = new CompletableFuture<String>();
+            breaker.call(client, c -> hanging).cancel(true);
+            Assert.assertTrue(hanging.isCancelled());
+        }
+        Assert.assertEquals(State.CLOSED, getState(breaker));
+        Assert.assertEquals(2, breaker.getStats().get(client.baseUrl).getConsecutiveFailures());
+
+        // so the next failure still opens the circuit
+        Assert.assertThrows(ConnectException.class, () -> RestHelper.await(breaker.call(client, c -> fail())));
+        Assert.assertEquals(State.OPEN, getState(breaker));
+
+        // cancelled trial does not close the circuit, but lets through another trial
+        Thread.sleep(100);
+        breaker.call(client, c -> new CompletableFuture<String>()).cancel(true);
+        Assert.assertEquals(State.HALF_OPEN, getState(breaker));
+        Assert.assertTrue(breaker.isAvailable(client.baseUrl));
+        Assert.assertThrows(ConnectException.class, () -> RestHelper.await(breaker.call(client, c -> fail())));
+        Assert.assertEquals(State.OPEN, getState(breaker));
+    }
+
+    @Test
+    public void testActionErrorsDoNotCount() {
+        var breaker = new CircuitBreaker(1, 60000);
+        var error = new RestHelper.RequestException("failed", new ErrorResponse(500, "action failed", null));
+        Assert.assertThrows(IOException.class, () -> RestHelper.await(breaker.call(client, c -> CompletableFuture.failedFuture(error))));
+        Assert.assertEquals(State.CLOSED, getState(breaker));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        var breaker = new CircuitBreaker(0, 60000);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertThrows(ConnectException.class, () -> RestHelper.await(breaker.call(client, c -> fail())));
+        }
+        Assert.assertEquals("ok", breaker.call(client, c -> succeed()).get());
+    }
+
+    private State getState(CircuitBreaker breaker) {
+        return breaker.getStats().get(client.baseUrl).getState();
+    }
+
+    private CompletableFuture<String> succeed() {
+        return CompletableFuture.completedFuture("ok");
+    }
+
+    private CompletableFuture<String> fail() {
+        return CompletableFuture.failedFuture(new ConnectException("failed"));
+    }
+
+}
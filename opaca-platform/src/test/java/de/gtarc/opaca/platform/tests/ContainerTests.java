@@ -3,6 +3,7 @@ package de.gtarc.opaca.platform.tests;
 import de.gtarc.opaca.api.AgentContainerApi;
 import de.gtarc.opaca.model.AgentContainer;
 import de.gtarc.opaca.model.AgentDescription;
+import de.gtarc.opaca.model.DeliveryReport;
 import de.gtarc.opaca.model.RuntimePlatform;
 import de.gtarc.opaca.platform.Application;
 
@@ -347,6 +348,9 @@ public class ContainerTests {
         var message = Map.of("payload", "testBroadcast", "replyTo", "doesnotmatter");
         var con = request(PLATFORM_URL, "POST", "/broadcast/topic", message);
         Assert.assertEquals(200, con.getResponseCode());
+        var report = result(con, DeliveryReport.class);
+        Assert.assertFalse(report.getSucceeded().isEmpty());
+        Assert.assertTrue(report.getFailed().isEmpty() && report.getTimedOut().isEmpty());
 
         con = request(PLATFORM_URL, "POST", "/invoke/GetInfo/sample1", Map.of());
         Assert.assertEquals(200, con.getResponseCode());
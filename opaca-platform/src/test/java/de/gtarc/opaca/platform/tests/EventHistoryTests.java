@@ -0,0 +1,212 @@
+package de.gtarc.opaca.platform.tests;
+
+import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.util.EventHistory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for the event history, in particular with many threads adding events concurrently. As the event
+ * history is a singleton, these only check the most recent events.
+ */
+public class EventHistoryTests {
+
+    private static final int THREADS = 8;
+
+    private static final int EVENTS_PER_THREAD = 20000;
+
+    private int maxSize;
+
+    @Before
+    public void setUp() {
+        maxSize = EventHistory.maxSize;
+    }
+
+    @After
+    public void tearDown() {
+        EventHistory.maxSize = maxSize;
+    }
+
+    @Test
+    public void testLimitAndOrder() {
+        EventHistory.maxSize = 1000;
+        var history = EventHistory.getInstance();
+        var added = makeEvents(5000);
+        added.forEach(history::addEvent);
+        Assert.assertEquals(added.subList(4000, 5000), history.getEvents());
+    }
+
+    @Test
+    public void testQuery() {
+        EventHistory.maxSize = 1000;
+        var history = EventHistory.getInstance();
+        var route = "POST /invoke/" + UUID.randomUUID();
+        List<Event> calls = new ArrayList<>();
+        List<Event> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            var call = new Event(Event.EventType.CALL, route, "sender-" + (i % 2), null, null, null);
+            var result = new Event(Event.EventType.SUCCESS, null, null, null, null, call.getId());
+            history.addEvent(call);
+            history.addEvent(result);
+            calls.add(call);
+            results.add(result);
+        }
+
+        // by route, page by page
+        List<Event> pages = new ArrayList<>();
+        String after = null;
+        for (int page = 0; page < 4; page++) {
+            var events = history.getEvents(after, 30, null, route, null, null);
+            Assert.assertEquals(page < 3 ? 30 : 10, events.size());
+            pages.addAll(events);
+            after = events.get(events.size() - 1).getId();
+        }
+        Assert.assertEquals(calls, pages);
+        Assert.assertEquals(List.of(), history.getEvents(after, 30, null, route, null, null));
+
+        // by other criteria
+        Assert.assertEquals(List.of(results.get(42)), history.getEvents(null, 0, null, null, null, calls.get(42).getId()));
+        Assert.assertEquals(50, history.getEvents(null, 0, Event.EventType.CALL, route, "sender-1", null).size());
+        Assert.assertEquals(results.subList(89, 100), history.getEvents(calls.get(89).getId(), 0, Event.EventType.SUCCESS, null, null, null));
+        Assert.assertEquals(List.of(), history.getEvents(null, 0, null, "GET /unknown", null, null));
+
+        // after timestamp, and unknown or no longer known ID
+        var timestamp = calls.get(0).getTimestamp() - 1;
+        Assert.assertEquals(calls, history.getEvents(String.valueOf(timestamp), 0, null, route, null, null));
+        Assert.assertEquals(calls, history.getEvents("unknown", 0, null, route, null, null));
+        Assert.assertEquals(calls.subList(50, 100), history.getEventsAfterKnown(calls.get(49).getId(), null, route));
+        Assert.assertEquals(List.of(), history.getEventsAfterKnown("unknown", null, route));
+
+        // by correlation ID
+        var correlationId = UUID.randomUUID().toString();
+        var call = new Event(Event.EventType.CALL, route, null, null, null, null, correlationId);
+        var forward = new Event(Event.EventType.FORWARD, null, null, "http://other", null, call.getId(), correlationId);
+        history.addEvent(call);
+        history.addEvent(new Event(Event.EventType.CALL, route, null, null, null, null));
+        history.addEvent(forward);
+        Assert.assertEquals(List.of(call, forward), history.getEventsByCorrelationId(correlationId));
+        Assert.assertEquals(List.of(), history.getEventsByCorrelationId("unknown"));
+    }
+
+    @Test
+    public void testListeners() throws InterruptedException {
+        EventHistory.maxSize = 1000;
+        var history = EventHistory.getInstance();
+        List<Event> received = Collections.synchronizedList(new ArrayList<>());
+        Consumer<Event> listener = received::add;
+        history.addListener(listener);
+        HashSet<Event> added;
+        try {
+            added = runConcurrently(history::addEvent);
+        } finally {
+            history.removeListener(listener);
+        }
+        Assert.assertEquals(added.size(), received.size());
+        Assert.assertEquals(added, new HashSet<>(received));
+
+        history.addEvent(new Event(Event.EventType.CALL, "GET /test", null, null, null, null));
+        Assert.assertEquals(added.size(), received.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        EventHistory.maxSize = 0;
+        EventHistory.getInstance().addEvent(makeEvents(1).get(0));
+        Assert.assertEquals(List.of(), EventHistory.getInstance().getEvents());
+    }
+
+    @Test
+    public void testConcurrentUnlimited() throws Exception {
+        EventHistory.maxSize = -1;
+        var history = EventHistory.getInstance();
+        var start = history.getEvents().size();
+        var added = runConcurrently(history::addEvent);
+        var events = history.getEvents();
+        Assert.assertEquals(start + added.size(), events.size());
+        Assert.assertEquals(added, new HashSet<>(events.subList(start, events.size())));
+    }
+
+    @Test
+    public void testConcurrentLimited() throws Exception {
+        EventHistory.maxSize = 5000;
+        var history = EventHistory.getInstance();
+        var added = runConcurrently(history::addEvent);
+        var events = history.getEvents();
+        Assert.assertEquals(5000, events.size());
+        Assert.assertTrue(added.containsAll(events));
+        // events of each thread in the same order as they were added
+        for (int t = 0; t < THREADS; t++) {
+            var prefix = "thread-" + t + "-";
+            var numbers = events.stream()
+                    .filter(e -> e.getRoute().startsWith(prefix))
+                    .map(e -> Integer.parseInt(e.getRoute().substring(prefix.length())))
+                    .collect(Collectors.toList());
+            var sorted = new ArrayList<>(numbers);
+            Collections.sort(sorted);
+            Assert.assertEquals(sorted, numbers);
+        }
+    }
+
+    private HashSet<Event> runConcurrently(Consumer<Event> add) throws InterruptedException {
+        var threadEvents = makeThreadEvents();
+        runConcurrently(threadEvents, add);
+        var added = new HashSet<Event>();
+        threadEvents.forEach(added::addAll);
+        return added;
+    }
+
+    /**
+     * Add the events in one thread per list, all starting at the same time.
+     */
+    private void runConcurrently(List<List<Event>> threadEvents, Consumer<Event> add) throws InterruptedException {
+        var startSignal = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (List<Event> events : threadEvents) {
+            threads.add(new Thread(() -> {
+                try {
+                    startSignal.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                events.forEach(add);
+            }));
+        }
+        threads.forEach(Thread::start);
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private List<List<Event>> makeThreadEvents() {
+        List<List<Event>> threadEvents = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            List<Event> events = new ArrayList<>();
+            for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+                events.add(new Event(Event.EventType.CALL, "thread-" + t + "-" + i, null, null, null, null));
+            }
+            threadEvents.add(events);
+        }
+        return threadEvents;
+    }
+
+    private List<Event> makeEvents(int n) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            events.add(new Event(Event.EventType.CALL, "event-" + i, null, null, null, null));
+        }
+        return events;
+    }
+
+}
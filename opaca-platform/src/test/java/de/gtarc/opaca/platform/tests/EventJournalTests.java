@@ -0,0 +1,156 @@
+package de.gtarc.opaca.platform.tests;
+
+import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.util.EventHistory;
+import de.gtarc.opaca.util.EventJournal;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for the event journal, each using a new temporary directory.
+ */
+public class EventJournalTests {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("opaca-journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testAppendAndRestore() throws IOException {
+        var events = makeEvents(20000);
+        var journal = openJournal(1024 * 1024, 0);
+        events.forEach(journal::append);
+        Assert.assertEquals(events.subList(19900, 20000), journal.getLastEvents(100));
+        journal.close();
+
+        // after "restart", events are still there, and new ones are added to a new segment
+        journal = openJournal(1024 * 1024, 0);
+        Assert.assertEquals(events.subList(19000, 20000), journal.getLastEvents(1000));
+
+        var more = makeEvents(10);
+        more.forEach(journal::append);
+        Assert.assertEquals(more, journal.getLastEvents(10));
+        Assert.assertEquals(events.size() + more.size(), journal.getLastEvents(-1).size());
+        journal.close();
+    }
+
+    @Test
+    public void testRotationAndRetention() throws IOException {
+        var events = makeEvents(5000);
+        var journal = openJournal(16 * 1024, 64 * 1024);
+        events.forEach(journal::append);
+        // closing waits for old segments being deleted in the background
+        journal.close();
+        try (var files = Files.list(directory)) {
+            Assert.assertTrue(files.count() <= 4);
+        }
+        // oldest events have been deleted, but the most recent ones are complete
+        var remaining = journal.getLastEvents(-1);
+        Assert.assertTrue(remaining.size() > 100 && remaining.size() < events.size());
+        Assert.assertEquals(events.subList(events.size() - remaining.size(), events.size()), remaining);
+    }
+
+    @Test
+    public void testConcurrentAppend() throws Exception {
+        var journal = openJournal(16 * 1024, 0);
+        List<Thread> threads = new ArrayList<>();
+        List<Event> events = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            var threadEvents = makeEvents(5000);
+            events.addAll(threadEvents);
+            threads.add(new Thread(() -> threadEvents.forEach(journal::append)));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        journal.close();
+        var restored = openJournal(16 * 1024, 0);
+        Assert.assertEquals(new HashSet<>(events), new HashSet<>(restored.getLastEvents(-1)));
+        restored.close();
+    }
+
+    @Test
+    public void testQueries() throws IOException {
+        var events = makeEvents(3000);
+        var journal = openJournal(64 * 1024, 0);
+        events.forEach(journal::append);
+
+        // page by page
+        List<Event> pages = new ArrayList<>();
+        var after = events.get(999).getId();
+        for (int page = 0; page < 5; page++) {
+            var result = journal.getEvents(after, null, 500, e -> true);
+            pages.addAll(result);
+            after = result.isEmpty() ? after : result.get(result.size() - 1).getId();
+        }
+        Assert.assertEquals(events.subList(1000, 3000), pages);
+
+        // filtered, after timestamp, unknown ID
+        Assert.assertEquals(List.of(events.get(42)), journal.getEvents(null, null, 0, e -> "event-42".equals(e.getRoute())));
+        var timestamp = events.get(2999).getTimestamp() - 1;
+        Assert.assertEquals(events.stream().filter(e -> e.getTimestamp() > timestamp).collect(Collectors.toList()),
+                journal.getEvents(null, timestamp, 0, e -> true));
+        Assert.assertNull(journal.getEvents("unknown", null, 0, e -> true));
+        journal.close();
+    }
+
+    @Test
+    public void testHistoryWithJournal() throws IOException {
+        var maxSize = EventHistory.maxSize;
+        var history = EventHistory.getInstance();
+        var journal = openJournal(64 * 1024, 0);
+        try {
+            EventHistory.maxSize = 100;
+            history.setJournal(journal);
+            var events = makeEvents(1000);
+            events.forEach(history::addEvent);
+
+            // recent events from memory, older events from journal
+            Assert.assertEquals(events.subList(900, 1000), history.getEvents());
+            Assert.assertEquals(events.subList(951, 1000), history.getEvents(events.get(950).getId(), 0, null, null, null, null));
+            Assert.assertEquals(events.subList(11, 21), history.getEvents(events.get(10).getId(), 10, null, null, null, null));
+            Assert.assertEquals(List.of(events.get(20)), history.getEvents("0", 0, null, "event-20", null, null));
+        } finally {
+            history.setJournal(null);
+            EventHistory.maxSize = maxSize;
+            journal.close();
+        }
+    }
+
+    private EventJournal openJournal(int segmentSize, long maxTotalSize) throws IOException {
+        return new EventJournal(directory, segmentSize, 0, 0, maxTotalSize);
+    }
+
+    private List<Event> makeEvents(int n) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            events.add(new Event(Event.EventType.values()[i % 4], "event-" + i, "sender", null, i % 4 == 3 ? 500 : null, null));
+        }
+        return events;
+    }
+
+}
@@ -0,0 +1,97 @@
+package de.gtarc.opaca.platform.tests;
+
+import de.gtarc.opaca.platform.LoadBalancer;
+import de.gtarc.opaca.platform.LoadBalancer.Strategy;
+import de.gtarc.opaca.util.ApiProxy;
+import de.gtarc.opaca.util.RestHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests for the different Load Balancing strategies; those do not make any actual requests.
+ */
+public class LoadBalancerTests {
+
+    private final List<ApiProxy> clients = IntStream.range(0, 3)
+            .mapToObj(i -> new ApiProxy("http://container-" + i, null, null))
+            .collect(Collectors.toList());
+
+    @Test
+    public void testFirst() {
+        var balancer = new LoadBalancer(Strategy.FIRST);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(clients, balancer.order("action", clients, null));
+        }
+    }
+
+    @Test
+    public void testRoundRobin() {
+        var balancer = new LoadBalancer(Strategy.ROUND_ROBIN);
+        var firsts = IntStream.range(0, 3)
+                .mapToObj(i -> balancer.order("action", clients, null).get(0))
+                .collect(Collectors.toSet());
+        Assert.assertEquals(Set.copyOf(clients), firsts);
+        // all candidates are still included for failover
+        Assert.assertEquals(Set.copyOf(clients), Set.copyOf(balancer.order("action", clients, null)));
+    }
+
+    @Test
+    public void testLeastOutstanding() throws Exception {
+        var balancer = new LoadBalancer(Strategy.FIRST);
+        // while a call to the first client is in progress, the others are preferred
+        var pending = new CompletableFuture<Void>();
+        var call = balancer.call(clients.get(0), c -> pending);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNotSame(clients.get(0), balancer.order("action", clients, Strategy.LEAST_OUTSTANDING).get(0));
+            Assert.assertNotSame(clients.get(0), balancer.order("action", clients, Strategy.POWER_OF_TWO).get(0));
+        }
+        pending.complete(null);
+        call.get();
+        Assert.assertEquals(0, balancer.getStats().get(clients.get(0).baseUrl).getOutstanding().get());
+    }
+
+    @Test
+    public void testEwma() throws Exception {
+        var balancer = new LoadBalancer(Strategy.EWMA);
+        balancer.call(clients.get(0), c -> respond(50)).get();
+        balancer.call(clients.get(1), c -> respond(1)).get();
+        balancer.call(clients.get(2), c -> respond(50)).get();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertSame(clients.get(1), balancer.order("action", clients, null).get(0));
+        }
+    }
+
+    @Test
+    public void testFailuresAreCounted() {
+        var balancer = new LoadBalancer(Strategy.FIRST);
+        var call = balancer.call(clients.get(0), c -> CompletableFuture.failedFuture(new IOException("failed")));
+        Assert.assertThrows(IOException.class, () -> RestHelper.await(call));
+        var stats = balancer.getStats().get(clients.get(0).baseUrl);
+        Assert.assertEquals(1, stats.getFailures().get());
+        Assert.assertEquals(0, stats.getOutstanding().get());
+    }
+
+    @Test
+    public void testCancelledCalls() {
+        var balancer = new LoadBalancer(Strategy.FIRST);
+        var pending = new CompletableFuture<Void>();
+        balancer.call(clients.get(0), c -> pending).cancel(true);
+        Assert.assertTrue(pending.isCancelled());
+        var stats = balancer.getStats().get(clients.get(0).baseUrl);
+        Assert.assertEquals(0, stats.getFailures().get());
+        Assert.assertEquals(0, stats.getOutstanding().get());
+    }
+
+    private CompletableFuture<Void> respond(long millis) {
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS));
+    }
+
+}
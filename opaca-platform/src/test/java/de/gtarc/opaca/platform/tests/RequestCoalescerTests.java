@@ -0,0 +1,84 @@
+package de.gtarc.opaca.platform.tests;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.gtarc.opaca.platform.RequestCoalescer;
+import de.gtarc.opaca.util.RestHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for coalescing identical concurrent calls; those do not make any actual requests.
+ */
+public class RequestCoalescerTests {
+
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(10);
+
+    @Test
+    public void testIdenticalCallsShareResult() throws Exception {
+        var calls = new AtomicInteger();
+        var results = callConcurrently(10, "key", () -> {
+            calls.incrementAndGet();
+            Thread.sleep(200);
+            return RestHelper.mapper.valueToTree(42);
+        });
+        for (Future<JsonNode> result : results) {
+            Assert.assertEquals(42, result.get().asInt());
+        }
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(9, coalescer.getCoalesced().get());
+    }
+
+    @Test
+    public void testIdenticalCallsShareError() throws Exception {
+        var results = callConcurrently(5, "key", () -> {
+            Thread.sleep(200);
+            throw new IOException("failed");
+        });
+        for (Future<JsonNode> result : results) {
+            var e = Assert.assertThrows(ExecutionException.class, result::get);
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testSubsequentCallsAreNotShared() throws Exception {
+        var calls = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            coalescer.call("key", () -> CompletableFuture.completedFuture(RestHelper.mapper.valueToTree(calls.incrementAndGet()))).get();
+        }
+        Assert.assertEquals(3, calls.get());
+        Assert.assertEquals(0, coalescer.getCoalesced().get());
+    }
+
+    private interface SlowCall {
+        JsonNode call() throws IOException, InterruptedException;
+    }
+
+    private List<Future<JsonNode>> callConcurrently(int n, String key, SlowCall call) {
+        var start = new CountDownLatch(1);
+        List<Future<JsonNode>> results = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return RestHelper.await(coalescer.call(key, () -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return call.call();
+                    } catch (IOException | InterruptedException e) {
+                        throw new CompletionException(e);
+                    }
+                })));
+            }));
+        }
+        start.countDown();
+        return results;
+    }
+
+}
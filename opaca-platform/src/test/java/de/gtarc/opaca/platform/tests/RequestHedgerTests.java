@@ -0,0 +1,68 @@
+package de.gtarc.opaca.platform.tests;
+
+import de.gtarc.opaca.platform.RequestHedger;
+import de.gtarc.opaca.util.ApiProxy;
+import de.gtarc.opaca.util.RestHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for hedged requests; those do not make any actual requests.
+ */
+public class RequestHedgerTests {
+
+    private final ApiProxy slow = new ApiProxy("http://slow", null, null);
+    private final ApiProxy fast = new ApiProxy("http://fast", null, null);
+    private final ApiProxy failing = new ApiProxy("http://failing", null, null);
+
+    private final Map<ApiProxy, Long> delays = Map.of(slow, 2000L, fast, 10L, failing, 10L);
+
+    @Test
+    public void testHedgedRequestWins() throws Exception {
+        var hedger = new RequestHedger(100, 100);
+        long start = System.currentTimeMillis();
+        Assert.assertEquals("http://fast", RestHelper.await(hedger.call("action", List.of(slow, fast), this::respond)));
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assert.assertEquals(1, hedger.getHedgedRequests().get());
+    }
+
+    @Test
+    public void testNoHedgeForFastRequest() throws Exception {
+        var hedger = new RequestHedger(1000, 100);
+        Assert.assertEquals("http://fast", RestHelper.await(hedger.call("action", List.of(fast, slow), this::respond)));
+        Assert.assertEquals(0, hedger.getHedgedRequests().get());
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        var hedger = new RequestHedger(1000, 100);
+        Assert.assertEquals("http://fast", RestHelper.await(hedger.call("action", List.of(failing, fast), this::respond)));
+        Assert.assertThrows(IOException.class, () -> RestHelper.await(hedger.call("action", List.of(failing), this::respond)));
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        var hedger = new RequestHedger(1, 10);
+        for (int i = 0; i < 20; i++) {
+            hedger.call("action", List.of(fast, fast), this::respond).get();
+        }
+        Assert.assertEquals(20, hedger.getRequests().get());
+        Assert.assertTrue(hedger.getHedgedRequests().get() <= 2);
+    }
+
+    private CompletableFuture<String> respond(ApiProxy client) {
+        var delayed = CompletableFuture.delayedExecutor(delays.get(client), TimeUnit.MILLISECONDS);
+        return CompletableFuture.supplyAsync(() -> {
+            if (client == failing) throw new CompletionException(new IOException("failed"));
+            return client.baseUrl;
+        }, delayed);
+    }
+
+}
@@ -0,0 +1,108 @@
+package de.gtarc.opaca.platform.tests;
+
+import de.gtarc.opaca.platform.LatencyHistogram;
+import de.gtarc.opaca.platform.RequestMetrics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for latency histograms and their export in Prometheus format and as JSON, without actual requests.
+ */
+public class RequestMetricsTests {
+
+    private final RequestMetrics metrics = RequestMetrics.getInstance();
+
+    @Before
+    public void setUp() {
+        metrics.clear();
+    }
+
+    @Test
+    public void testPercentileAccuracy() {
+        var random = new Random(42);
+        var histogram = new LatencyHistogram();
+        var values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            // log-normal, mostly between 1 and 100 ms, with a long tail
+            values[i] = (long) Math.exp(9 + 1.5 * random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        var snapshot = histogram.getSnapshot();
+        Assert.assertEquals(values.length, snapshot.getCount());
+        Assert.assertEquals(values[values.length - 1], snapshot.getMax());
+        for (double p : List.of(0.5, 0.9, 0.99, 0.999)) {
+            var exact = values[(int) Math.ceil(p * values.length) - 1];
+            var approx = snapshot.getPercentile(p);
+            Assert.assertTrue(String.format("p%s: %d vs %d", p, approx, exact), Math.abs(approx - exact) <= exact * 0.01);
+        }
+        Assert.assertEquals(0, new LatencyHistogram().getSnapshot().getPercentile(0.99));
+    }
+
+    @Test
+    public void testPrometheusFormat() {
+        metrics.record("POST", "/invoke/{action}", 200, "container-1", "Add", 800);
+        metrics.record("POST", "/invoke/{action}", 200, "container-1", "Add", 30000);
+        metrics.record("POST", "/invoke/{action}", 502, null, "Fail\"", 2000000);
+        var end = metrics.startRequest("POST", "/invoke/Add");
+
+        var text = metrics.toPrometheus();
+        Assert.assertTrue(text.contains("# TYPE opaca_http_request_duration_seconds histogram\n"));
+        Assert.assertTrue(text.contains("opaca_http_requests_in_flight{method=\"POST\",path=\"/invoke\"} 1\n"));
+        var labels = "method=\"POST\",route=\"/invoke/{action}\",status=\"2xx\",container=\"container-1\",action=\"Add\"";
+        Assert.assertTrue(text.contains("opaca_http_request_duration_seconds_bucket{" + labels + ",le=\"0.0005\"} 0\n"));
+        Assert.assertTrue(text.contains("opaca_http_request_duration_seconds_bucket{" + labels + ",le=\"0.001\"} 1\n"));
+        Assert.assertTrue(text.contains("opaca_http_request_duration_seconds_bucket{" + labels + ",le=\"0.05\"} 2\n"));
+        Assert.assertTrue(text.contains("opaca_http_request_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(text.contains("opaca_http_request_duration_seconds_count{" + labels + "} 2\n"));
+        Assert.assertTrue(text.contains("status=\"5xx\",container=\"\",action=\"Fail\\\"\""));
+
+        end.run();
+        Assert.assertTrue(metrics.toPrometheus().contains("opaca_http_requests_in_flight{method=\"POST\",path=\"/invoke\"} 0\n"));
+
+        // unknown paths do not add new series
+        var unknown = metrics.startRequest("GET", "/random-" + System.nanoTime() + "/foo");
+        Assert.assertTrue(metrics.toPrometheus().contains("opaca_http_requests_in_flight{method=\"GET\",path=\"other\"} 1\n"));
+        unknown.run();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testJson() {
+        for (int i = 1; i <= 100; i++) {
+            metrics.record("GET", "/info", 200, null, null, i * 1000L);
+        }
+        var json = metrics.toJson();
+        var durations = (List<Map<String, ?>>) json.get("durations");
+        Assert.assertEquals(1, durations.size());
+        Assert.assertEquals(100L, durations.get(0).get("count"));
+        Assert.assertEquals(50.0, (double) durations.get(0).get("p50Ms"), 0.5);
+        Assert.assertEquals(99.0, (double) durations.get(0).get("p99Ms"), 1.0);
+        Assert.assertEquals(100.0, (double) durations.get(0).get("maxMs"), 0.001);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 250000; i++) {
+                    metrics.record("POST", "/invoke/{action}", 200, null, "Add", i % 10000);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(metrics.toPrometheus().contains("action=\"Add\",le=\"+Inf\"} 1000000\n"));
+    }
+
+}
@@ -0,0 +1,327 @@
+package de.gtarc.opaca.platform.tests;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.gtarc.opaca.model.AgentDescription;
+import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.util.ApiProxy;
+import de.gtarc.opaca.util.CallContext;
+import de.gtarc.opaca.util.DataFormat;
+import de.gtarc.opaca.util.EventHistory;
+import de.gtarc.opaca.util.RestHelper;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests for the RestHelper's shared HTTP client, using a minimal local HTTP server instead of
+ * a Runtime Platform or Agent Container.
+ */
+public class RestHelperTests {
+
+    private static HttpServer server;
+
+    private static String baseUrl;
+
+    private static final List<String> receivedContentTypes = new CopyOnWriteArrayList<>();
+
+    private static final Semaphore slowRequests = new Semaphore(0);
+
+    private static final CountDownLatch stopped = new CountDownLatch(1);
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/echo", exchange -> respond(exchange, 200, exchange.getRequestBody().readAllBytes()));
+        server.createContext("/sender", exchange -> respond(exchange, 200,
+                RestHelper.writeJson(exchange.getRequestHeaders().getFirst("Authorization")).getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/correlation", exchange -> respond(exchange, 200,
+                RestHelper.writeJson(exchange.getRequestHeaders().getFirst(Event.HEADER_CORRELATION_ID)).getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/error", exchange -> respond(exchange, 404,
+                "{\"statusCode\": 404, \"message\": \"not found\"}".getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/agents", exchange -> respond(exchange, 200,
+                RestHelper.writeJson(List.of(new AgentDescription("agent", "type", List.of(), List.of()))).getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/format", exchange -> {
+            // echo the request body in the format asked for, like the Runtime Platform and Agent Container
+            var contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            receivedContentTypes.add(contentType);
+            var body = DataFormat.forContentType(contentType).getMapper().readTree(exchange.getRequestBody());
+            var format = DataFormat.forAccept(exchange.getRequestHeaders().getFirst("Accept"));
+            respond(exchange, 200, format.getWriter().writeValueAsBytes(body), format.getMediaType());
+        });
+        server.createContext("/slow", exchange -> {
+            slowRequests.release();
+            try {
+                // longer than the timeout of the test using this route
+                stopped.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, exchange.getRequestBody().readAllBytes());
+        });
+        server.createContext("/large", exchange -> {
+            // compressed if accepted by the client, like the Runtime Platform's /info and /history
+            var body = RestHelper.writeJson(makeLargePayload()).getBytes(StandardCharsets.UTF_8);
+            var encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (encoding != null && encoding.contains("gzip")) {
+                var compressed = new ByteArrayOutputStream();
+                try (var gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(body);
+                }
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                body = compressed.toByteArray();
+            }
+            respond(exchange, 200, body);
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        stopped.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testPostAndGet() throws Exception {
+        var client = new RestHelper(baseUrl, "sender", "token");
+        Assert.assertEquals(Map.of("x", 42), client.post("/echo", Map.of("x", 42), Map.class));
+        Assert.assertEquals("Bearer token", client.get("/sender", String.class));
+    }
+
+    @Test
+    public void testErrorResponse() {
+        var client = new RestHelper(baseUrl, null, null);
+        var e = Assert.assertThrows(RestHelper.RequestException.class, () -> client.get("/error", Map.class));
+        Assert.assertEquals(404, e.getNestedError().getStatusCode());
+    }
+
+    @Test
+    public void testTypedList() throws Exception {
+        var agents = new ApiProxy(baseUrl, null, null).getAgents();
+        Assert.assertEquals(1, agents.size());
+        Assert.assertEquals("agent", agents.get(0).getAgentId());
+    }
+
+    @Test(timeout = 10000)
+    public void testAsyncRequests() throws Exception {
+        var client = new RestHelper(baseUrl, null, null);
+        List<CompletableFuture<Map>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(client.postAsync("/echo", Map.of("i", i), Map.class));
+        }
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(Map.of("i", i), futures.get(i).get());
+        }
+        var error = client.getAsync("/error", Map.class);
+        var e = Assert.assertThrows(ExecutionException.class, error::get);
+        Assert.assertTrue(e.getCause() instanceof RestHelper.RequestException);
+        Assert.assertEquals(0, RestHelper.getConnectionStats().get(baseUrl).get("activeConnections"));
+    }
+
+    @Test
+    public void testForwardEventRelatedToCurrentCall() throws Exception {
+        var maxSize = EventHistory.maxSize;
+        EventHistory.maxSize = -1;
+        try {
+            var call = new Event(Event.EventType.CALL, "POST /echo", null, null, null, null);
+            // a later call for the same route, e.g. handled concurrently in a different thread
+            EventHistory.getInstance().addEvent(new Event(Event.EventType.CALL, "POST /echo", null, null, null, null));
+            var client = new RestHelper(baseUrl, null, null);
+            CallContext.withCall(call, () -> client.postAsync("/echo?forward=false", Map.of(), Map.class)).get();
+            var forward = EventHistory.getInstance().getEvents().stream()
+                    .filter(e -> e.getEventType() == Event.EventType.FORWARD)
+                    .reduce((a, b) -> b).orElseThrow();
+            Assert.assertEquals(call.getId(), forward.getRelatedId());
+            Assert.assertEquals(baseUrl, forward.getReceiver());
+            Assert.assertNull(CallContext.getCall());
+        } finally {
+            EventHistory.maxSize = maxSize;
+        }
+    }
+
+    @Test
+    public void testCorrelationIdIsPassedOn() throws Exception {
+        var client = new RestHelper(baseUrl, null, null);
+        var call = new Event(Event.EventType.CALL, "GET /other", null, null, null, null, "correlation-123");
+        Assert.assertEquals("correlation-123", CallContext.withCall(call, () -> client.getAsync("/correlation", String.class)).get());
+        Assert.assertNull(client.get("/correlation", String.class));
+    }
+
+    @Test(timeout = 10000)
+    public void testConnectionsAreReleased() throws Exception {
+        // different host name, so the lower limit applies; would block if connections were not released
+        var otherUrl = baseUrl.replace("localhost", "127.0.0.1");
+        var settings = RestHelper.getSettings();
+        RestHelper.configure(settings.toBuilder().maxConnectionsPerHost(2).build());
+        try {
+            var client = new RestHelper(otherUrl, null, null);
+            for (int i = 0; i < 5; i++) {
+                client.post("/echo", Map.of("i", i), null);
+                client.readStream(client.request("POST", "/echo", Map.of("i", i)));
+                Assert.assertThrows(IOException.class, () -> client.get("/error", Map.class));
+            }
+        } finally {
+            RestHelper.configure(settings);
+        }
+        var stats = RestHelper.getConnectionStats().get(otherUrl);
+        Assert.assertEquals(2, stats.get("maxConnections"));
+        Assert.assertEquals(0, stats.get("activeConnections"));
+    }
+
+    @Test(timeout = 5000)
+    public void testConnectionWaitTimeout() throws Exception {
+        // same host and limit as above, so it does not matter which test is run first
+        var otherUrl = baseUrl.replace("localhost", "127.0.0.1");
+        var settings = RestHelper.getSettings();
+        RestHelper.configure(settings.toBuilder().maxConnectionsPerHost(2).connectionWaitTimeoutMs(200).build());
+        List<CompletableFuture<Map>> slow = new ArrayList<>();
+        try {
+            var client = new RestHelper(otherUrl, null, null);
+            for (int i = 0; i < 2; i++) {
+                slow.add(client.postAsync("/slow", Map.of(), Map.class));
+            }
+            slowRequests.acquire(2);
+            var e = Assert.assertThrows(ExecutionException.class, () -> client.postAsync("/echo", Map.of(), Map.class).get());
+            Assert.assertTrue(e.getCause() instanceof HttpTimeoutException);
+        } finally {
+            slow.forEach(f -> f.cancel(true));
+            RestHelper.configure(settings);
+        }
+        while (! RestHelper.getConnectionStats().get(otherUrl).get("activeConnections").equals(0)) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testCancelAbortsRequest() throws Exception {
+        var client = new RestHelper(baseUrl, null, null);
+        var future = client.postAsync("/slow", Map.of(), Map.class);
+        slowRequests.acquire();
+        Assert.assertEquals(1, RestHelper.getConnectionStats().get(baseUrl).get("activeConnections"));
+        future.cancel(true);
+        // the connection is released as soon as the exchange has been aborted, not after the response
+        while (! RestHelper.getConnectionStats().get(baseUrl).get("activeConnections").equals(0)) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testConnectTimeoutFixedAfterFirstRequest() throws Exception {
+        var client = new RestHelper(baseUrl, null, null);
+        Assert.assertEquals(Map.of("x", 1), client.post("/echo", Map.of("x", 1), Map.class));
+        var settings = RestHelper.getSettings();
+        RestHelper.configure(settings.toBuilder().connectTimeoutMs(settings.getConnectTimeoutMs() + 1000).requestTimeoutMs(1234).build());
+        try {
+            Assert.assertEquals(settings.getConnectTimeoutMs(), RestHelper.getSettings().getConnectTimeoutMs());
+            Assert.assertEquals(1234, RestHelper.getSettings().getRequestTimeoutMs());
+        } finally {
+            RestHelper.configure(settings);
+        }
+    }
+
+    @Test
+    public void testBinaryFormatNegotiation() throws Exception {
+        var client = new RestHelper(baseUrl, null, null);
+        Assert.assertEquals(Map.of("x", 1), client.post("/format", Map.of("x", 1), Map.class));
+        var settings = RestHelper.getSettings();
+        RestHelper.configure(settings.toBuilder().preferredFormat(DataFormat.CBOR).build());
+        try {
+            Assert.assertEquals(Map.of("x", 2), client.post("/format", Map.of("x", 2), Map.class));
+            Assert.assertEquals(Map.of("x", 3), client.post("/format", Map.of("x", 3), Map.class));
+            Assert.assertEquals(List.of(4.5), client.post("/format", List.of(4.5), List.class));
+            // strings are always sent as JSON
+            Assert.assertEquals("text", client.post("/format", "text", String.class));
+        } finally {
+            RestHelper.configure(settings);
+        }
+        // only sending CBOR after the server has responded with CBOR
+        Assert.assertEquals(List.of("application/json; charset=UTF-8", "application/json; charset=UTF-8",
+                "application/cbor", "application/cbor", "application/json; charset=UTF-8"), receivedContentTypes);
+        Assert.assertEquals("CBOR", RestHelper.getConnectionStats().get(baseUrl).get("format"));
+    }
+
+    @Test
+    public void testCompressedResponses() throws Exception {
+        var client = new RestHelper(baseUrl, null, null);
+        var expected = RestHelper.mapper.valueToTree(makeLargePayload());
+        var settings = RestHelper.getSettings();
+        for (boolean compressed : List.of(false, true)) {
+            RestHelper.configure(settings.toBuilder().acceptCompressed(compressed).build());
+            try {
+                Assert.assertEquals(expected, client.get("/large", JsonNode.class));
+                Assert.assertEquals(expected, RestHelper.readJson(client.readStream(client.request("GET", "/large", null))));
+            } finally {
+                RestHelper.configure(settings);
+            }
+        }
+
+        // info of a platform with many containers is very repetitive, so it compresses well
+        var raw = RestHelper.writeJson(makeLargePayload()).getBytes(StandardCharsets.UTF_8);
+        var compressed = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(raw);
+        }
+        Assert.assertTrue(compressed.size() < raw.length / 10);
+    }
+
+    private static Map<String, Object> makeLargePayload() {
+        List<Object> containers = new ArrayList<>();
+        for (int c = 0; c < 200; c++) {
+            Map<String, Object> definitions = new TreeMap<>();
+            for (int d = 0; d < 10; d++) {
+                definitions.put("Type" + d, Map.of("type", "object", "properties", Map.of(
+                        "name", Map.of("type", "string"), "value", Map.of("type", "number"),
+                        "tags", Map.of("type", "array", "items", Map.of("type", "string")))));
+            }
+            List<Object> agents = new ArrayList<>();
+            for (int a = 0; a < 3; a++) {
+                agents.add(Map.of("agentId", "agent-" + c + "-" + a, "agentType", "SampleAgent",
+                        "actions", List.of(
+                                Map.of("name", "GetInfo", "parameters", Map.of(), "result", Map.of("type", "object")),
+                                Map.of("name", "Add", "parameters", Map.of("x", Map.of("type", "integer"), "y", Map.of("type", "integer")), "result", Map.of("type", "integer")))));
+            }
+            containers.add(Map.of(
+                    "containerId", "container-" + c,
+                    "image", Map.of("imageName", "sample-image-" + (c % 5), "description", "Sample image for testing", "definitions", definitions),
+                    "agents", agents,
+                    "connectivity", Map.of("publicUrl", "http://localhost", "apiPortMapping", 8000 + c)));
+        }
+        return Map.of("baseUrl", "http://localhost:8000", "containers", containers);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        respond(exchange, status, body, "application/json");
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body, String contentType) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package de.gtarc.opaca.platform.tests;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.gtarc.opaca.model.Action;
+import de.gtarc.opaca.model.AgentContainer;
+import de.gtarc.opaca.model.AgentDescription;
+import de.gtarc.opaca.platform.ResultCache;
+import de.gtarc.opaca.util.RestHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for caching results of cacheable actions; those do not make any actual requests.
+ */
+public class ResultCacheTests {
+
+    private final JsonNode result = RestHelper.mapper.valueToTree(42);
+
+    @Test
+    public void testCacheableAction() {
+        var cache = new ResultCache();
+        cache.update("container-1", List.of(makeContainer(new Action.Caching(60, 10))));
+        var segment = cache.getSegment("Lookup");
+        Assert.assertNotNull(segment);
+
+        var key = ResultCache.makeKey(null, null, true, Map.of("x", json(1)));
+        Assert.assertNull(segment.get(key));
+        segment.put(key, result);
+        Assert.assertEquals(result, segment.get(key));
+        Assert.assertEquals(1, cache.getHits().get());
+        Assert.assertEquals(1, cache.getMisses().get());
+    }
+
+    @Test
+    public void testNotCacheable() {
+        var cache = new ResultCache();
+        cache.update("container-1", List.of(makeContainer(null)));
+        Assert.assertNull(cache.getSegment("Lookup"));
+        Assert.assertNull(cache.getSegment("Unknown"));
+
+        // not cacheable if any container providing the action does not allow it
+        cache.update("container-2", List.of(makeContainer(new Action.Caching(60, 10))));
+        Assert.assertNull(cache.getSegment("Lookup"));
+        cache.remove("container-1");
+        Assert.assertNotNull(cache.getSegment("Lookup"));
+    }
+
+    @Test
+    public void testKeyIgnoresOrder() {
+        var a = Map.of("x", json(Map.of("a", 1, "b", List.of(1, 2))), "y", json("foo"));
+        var b = Map.of("y", json("foo"), "x", json(Map.of("b", List.of(1, 2), "a", 1)));
+        var c = Map.of("y", json("foo"), "x", json(Map.of("b", List.of(2, 1), "a", 1)));
+        Assert.assertEquals(ResultCache.makeKey("agent", null, true, a), ResultCache.makeKey("agent", null, true, b));
+        Assert.assertNotEquals(ResultCache.makeKey("agent", null, true, a), ResultCache.makeKey("agent", null, true, c));
+        Assert.assertNotEquals(ResultCache.makeKey("agent", null, true, a), ResultCache.makeKey("other", null, true, a));
+        Assert.assertNotEquals(ResultCache.makeKey("agent", null, true, a), ResultCache.makeKey("agent", null, false, a));
+    }
+
+    @Test
+    public void testInvalidatedOnUpdate() {
+        var cache = new ResultCache();
+        var container = makeContainer(new Action.Caching(60, 10));
+        cache.update("container-1", List.of(container));
+        var segment = cache.getSegment("Lookup");
+        segment.put("key", result);
+
+        cache.update("container-1", List.of(container));
+        Assert.assertNull(cache.getSegment("Lookup").get("key"));
+        // results of calls started before the update are not visible afterwards
+        segment.put("key", result);
+        Assert.assertNull(cache.getSegment("Lookup").get("key"));
+    }
+
+    @Test
+    public void testMaxEntriesAndTtl() throws Exception {
+        var cache = new ResultCache();
+        cache.update("container-1", List.of(makeContainer(new Action.Caching(1, 2))));
+        var segment = cache.getSegment("Lookup");
+        segment.put("a", result);
+        segment.put("b", result);
+        segment.put("c", result);
+        Assert.assertNull(segment.get("a"));
+        Assert.assertNotNull(segment.get("c"));
+
+        Thread.sleep(1100);
+        Assert.assertNull(segment.get("c"));
+    }
+
+    private AgentContainer makeContainer(Action.Caching caching) {
+        var action = new Action("Lookup", null, Map.of(), null, caching);
+        var agent = new AgentDescription("agent", "type", List.of(action), List.of());
+        var container = new AgentContainer();
+        container.setAgents(List.of(agent));
+        return container;
+    }
+
+    private JsonNode json(Object value) {
+        return RestHelper.mapper.valueToTree(value);
+    }
+
+}